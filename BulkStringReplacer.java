@@ -0,0 +1,377 @@
+import javax.jcr.Node;
+import javax.jcr.NodeIterator;
+import javax.jcr.Property;
+import javax.jcr.PropertyIterator;
+import javax.jcr.PropertyType;
+import javax.jcr.RepositoryException;
+import javax.jcr.Session;
+import javax.jcr.Value;
+import javax.jcr.query.Query;
+import javax.jcr.query.QueryResult;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ThreadLocalRandom;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Applies {@link StringReplacement}s (single {@link ReplacementRule}s or a precompiled
+ * {@link ReplacementRuleSet}) to every node of a subtree or of a query result, saving every
+ * {@code saveInterval} changed nodes instead of once per property.
+ *
+ * Single and multi-valued String properties are rewritten; other property types are skipped.
+ * Progress (nodes visited, nodes/sec, estimated time remaining) is available from
+ * {@link #getProgress()} while the run is going and is logged every {@value #PROGRESS_LOG_INTERVAL} nodes.
+ *
+ * If a batch fails to save, it is discarded and its nodes are replayed one per save, so only the
+ * nodes that can't be saved are lost; each of those is counted as failed and written to the report.
+ *
+ * In dry-run mode nothing is written or saved; the counters and the optional
+ * {@link ReplacementReport} show what would change. Old and new values are only logged for a
+ * sampled fraction of changes, see {@link #setValueLogSampleRate}.
+ */
+public class BulkStringReplacer {
+
+    private static final Logger log = LoggerFactory.getLogger(BulkStringReplacer.class);
+
+    static final int PROGRESS_LOG_INTERVAL = 10000;
+
+    private final List<StringReplacement> rules;
+    private final Set<String> propertyNames;
+    private final int saveInterval;
+    private final ReplacementProgress progress;
+
+    private boolean dryRun;
+    private ReplacementReport report;
+    private double valueLogSampleRate;
+
+    private final List<String> pendingPaths = new ArrayList<>();
+    private boolean replaying;
+
+    public BulkStringReplacer(List<? extends StringReplacement> rules, int saveInterval) {
+        this(rules, saveInterval, new ReplacementProgress());
+    }
+
+    /**
+     * Reports into a shared {@code progress}, used by {@link ParallelStringReplacer} workers.
+     */
+    BulkStringReplacer(List<? extends StringReplacement> rules, int saveInterval, ReplacementProgress progress) {
+        this.rules = new ArrayList<>(rules);
+        this.saveInterval = Math.max(1, saveInterval);
+        this.propertyNames = collectPropertyNames(rules);
+        this.progress = progress;
+    }
+
+    public ReplacementProgress getProgress() {
+        return progress;
+    }
+
+    /** Computes and reports changes without setting any property or saving. */
+    public void setDryRun(boolean dryRun) {
+        this.dryRun = dryRun;
+    }
+
+    /** Receives path, property and match count of every changed property. */
+    public void setReport(ReplacementReport report) {
+        this.report = report;
+    }
+
+    /**
+     * Fraction (0 to 1) of changes whose full old and new values are logged at INFO. Defaults to 0:
+     * large rich-text values would flood the log and cost more than the replacement itself.
+     */
+    public void setValueLogSampleRate(double valueLogSampleRate) {
+        this.valueLogSampleRate = valueLogSampleRate;
+    }
+
+    /**
+     * Visits {@code root} and all its descendants. The walk keeps an explicit stack, so deep trees
+     * don't grow the call stack. Set an expected node count with {@link #setExpectedNodes} to get
+     * an estimated time remaining.
+     */
+    public ReplacementProgress replaceInSubtree(Node root) {
+        try {
+            walk(root);
+            saveIfPending(root.getSession());
+        } catch (RepositoryException e) {
+            log.error("Error walking subtree for bulk replacement", e);
+            progress.failed();
+        } finally {
+            progress.finish();
+        }
+        log.info("Bulk replacement finished: {}", progress);
+        return progress;
+    }
+
+    /**
+     * Visits every node returned by a JCR-SQL2 query, e.g.
+     * {@code SELECT * FROM [nt:unstructured] AS n WHERE ISDESCENDANTNODE(n, '/content/site')
+     * AND CONTAINS(n.*, 'old-brand')}.
+     */
+    public ReplacementProgress replaceInQueryResult(Session session, String statement) {
+        try {
+            Query query = session.getWorkspace().getQueryManager().createQuery(statement, Query.JCR_SQL2);
+            QueryResult result = query.execute();
+            NodeIterator nodes = result.getNodes();
+            if (nodes.getSize() >= 0) {
+                progress.setExpectedNodes(nodes.getSize());
+            }
+            while (nodes.hasNext()) {
+                processNode(nodes.nextNode(), session);
+            }
+            saveIfPending(session);
+        } catch (RepositoryException e) {
+            log.error("Error running query for bulk replacement: {}", statement, e);
+            progress.failed();
+        } finally {
+            progress.finish();
+        }
+        log.info("Bulk replacement finished: {}", progress);
+        return progress;
+    }
+
+    /**
+     * Processes {@code root} and its descendants without the final save.
+     */
+    void walk(Node root) throws RepositoryException {
+        Session session = root.getSession();
+        Deque<Node> stack = new ArrayDeque<>();
+        stack.push(root);
+        while (!stack.isEmpty()) {
+            Node node = stack.pop();
+            processNode(node, session);
+            NodeIterator children = node.getNodes();
+            List<Node> childNodes = new ArrayList<>();
+            while (children.hasNext()) {
+                childNodes.add(children.nextNode());
+            }
+            // push in reverse so children are processed in document order
+            for (int i = childNodes.size() - 1; i >= 0; i--) {
+                stack.push(childNodes.get(i));
+            }
+        }
+    }
+
+    /**
+     * Processes only {@code node} itself, without its descendants.
+     */
+    void visit(Node node) throws RepositoryException {
+        processNode(node, node.getSession());
+    }
+
+    /**
+     * Saves changes still pending from {@link #walk} or {@link #visit}.
+     */
+    void flush(Session session) {
+        saveIfPending(session);
+    }
+
+    public void setExpectedNodes(long expectedNodes) {
+        progress.setExpectedNodes(expectedNodes);
+    }
+
+    private void processNode(Node node, Session session) {
+        progress.nodeVisited();
+        try {
+            int changed = replaceInNode(node);
+            if (changed > 0) {
+                progress.nodeChanged(changed);
+                if (!dryRun) {
+                    pendingPaths.add(node.getPath());
+                    if (pendingPaths.size() >= saveInterval) {
+                        save(session);
+                    }
+                }
+            }
+        } catch (RepositoryException e) {
+            log.error("Error replacing strings in node", e);
+            progress.failed();
+        }
+        if (progress.claimLogMark(PROGRESS_LOG_INTERVAL)) {
+            log.info("Bulk replacement progress: {}", progress);
+        }
+    }
+
+    /**
+     * @return number of properties changed on the node
+     */
+    private int replaceInNode(Node node) throws RepositoryException {
+        int changed = 0;
+        if (propertyNames != null) {
+            for (String propertyName : propertyNames) {
+                if (node.hasProperty(propertyName) && replaceInProperty(node, node.getProperty(propertyName))) {
+                    changed++;
+                }
+            }
+            return changed;
+        }
+        // collect first, setting properties while iterating them is not safe
+        List<Property> properties = new ArrayList<>();
+        PropertyIterator iterator = node.getProperties();
+        while (iterator.hasNext()) {
+            properties.add(iterator.nextProperty());
+        }
+        for (Property property : properties) {
+            if (replaceInProperty(node, property)) {
+                changed++;
+            }
+        }
+        return changed;
+    }
+
+    private boolean replaceInProperty(Node node, Property property) throws RepositoryException {
+        if (property.getType() != PropertyType.STRING || property.getDefinition().isProtected()) {
+            return false;
+        }
+        String propertyName = property.getName();
+        if (property.isMultiple()) {
+            Value[] values = property.getValues();
+            String[] newValues = new String[values.length];
+            boolean modified = false;
+            int matches = 0;
+            for (int i = 0; i < values.length; i++) {
+                String currentValue = values[i].getString();
+                newValues[i] = applyRules(propertyName, currentValue);
+                if (!newValues[i].equals(currentValue)) {
+                    modified = true;
+                    matches += countMatches(propertyName, currentValue);
+                    logValues(node, propertyName, currentValue, newValues[i]);
+                }
+            }
+            if (modified) {
+                record(node, propertyName, matches);
+                if (!dryRun) {
+                    node.setProperty(propertyName, newValues);
+                }
+            }
+            return modified;
+        }
+        String currentValue = property.getString();
+        String newValue = applyRules(propertyName, currentValue);
+        if (newValue.equals(currentValue)) {
+            return false;
+        }
+        record(node, propertyName, countMatches(propertyName, currentValue));
+        logValues(node, propertyName, currentValue, newValue);
+        if (!dryRun) {
+            node.setProperty(propertyName, newValue);
+        }
+        return true;
+    }
+
+    private String applyRules(String propertyName, String value) {
+        String result = value;
+        for (StringReplacement rule : rules) {
+            if (rule.appliesTo(propertyName)) {
+                result = rule.apply(result);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Counts matches the way {@link #applyRules} applies them, each rule on the previous rule's
+     * output. Only runs when a report needs the number.
+     */
+    private int countMatches(String propertyName, String value) {
+        if (report == null) {
+            return 0;
+        }
+        int matches = 0;
+        String result = value;
+        for (StringReplacement rule : rules) {
+            if (rule.appliesTo(propertyName)) {
+                matches += rule.countMatches(result);
+                result = rule.apply(result);
+            }
+        }
+        return matches;
+    }
+
+    private void record(Node node, String propertyName, int matches) throws RepositoryException {
+        // replayed nodes were already reported with their batch
+        if (report != null && !replaying) {
+            report.record(node.getPath(), propertyName, matches);
+        }
+    }
+
+    private void logValues(Node node, String propertyName, String currentValue, String newValue)
+            throws RepositoryException {
+        if (!replaying && valueLogSampleRate > 0 && ThreadLocalRandom.current().nextDouble() < valueLogSampleRate) {
+            log.info("{}Property '{}' on {} updated from '{}' to '{}'", dryRun ? "[dry-run] " : "",
+                    propertyName, node.getPath(), currentValue, newValue);
+        }
+    }
+
+    private void saveIfPending(Session session) {
+        if (!pendingPaths.isEmpty()) {
+            save(session);
+        }
+    }
+
+    private void save(Session session) {
+        try {
+            session.save();
+            progress.saved();
+        } catch (RepositoryException e) {
+            log.warn("Saving a batch of {} changed nodes failed, saving them one by one", pendingPaths.size(), e);
+            discardChanges(session);
+            saveIndividually(session);
+        }
+        pendingPaths.clear();
+    }
+
+    /**
+     * Reapplies the rules to each node of a discarded batch and saves it on its own, discarding and
+     * reporting the nodes that still fail.
+     */
+    private void saveIndividually(Session session) {
+        replaying = true;
+        try {
+            for (String path : pendingPaths) {
+                try {
+                    if (replaceInNode(session.getNode(path)) > 0) {
+                        session.save();
+                        progress.saved();
+                    }
+                } catch (RepositoryException e) {
+                    log.error("Error saving replacements in {}, discarding them", path, e);
+                    progress.failed();
+                    if (report != null) {
+                        report.recordFailure(path, e.getMessage());
+                    }
+                    discardChanges(session);
+                }
+            }
+        } finally {
+            replaying = false;
+        }
+    }
+
+    private void discardChanges(Session session) {
+        try {
+            session.refresh(false);
+        } catch (RepositoryException e) {
+            log.error("Could not discard pending changes", e);
+        }
+    }
+
+    /**
+     * Union of the rules' property names, or null if any rule applies to all properties.
+     */
+    private static Set<String> collectPropertyNames(List<? extends StringReplacement> rules) {
+        Set<String> names = new HashSet<>();
+        for (StringReplacement rule : rules) {
+            if (rule.getPropertyNames() == null) {
+                return null;
+            }
+            names.addAll(rule.getPropertyNames());
+        }
+        return Collections.unmodifiableSet(names);
+    }
+}
@@ -0,0 +1,208 @@
+// CarouselCache.java (Shared cache of carousel slide data)
+package com.myproject.core.models;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import org.apache.sling.api.resource.Resource;
+import org.apache.sling.api.resource.observation.ResourceChange;
+import org.apache.sling.api.resource.observation.ResourceChangeListener;
+import org.osgi.service.component.annotations.Activate;
+import org.osgi.service.component.annotations.Component;
+import org.osgi.service.component.annotations.Modified;
+import org.osgi.service.metatype.annotations.AttributeDefinition;
+import org.osgi.service.metatype.annotations.Designate;
+import org.osgi.service.metatype.annotations.ObjectClassDefinition;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Caches the slide data of carousel components, keyed by component resource path.
+ *
+ * Entries are invalidated by resource change events below the observed paths: a change to the
+ * carousel or anything below it (items, images) drops its entry, and so does a change to an asset
+ * one of its slides references. Holds at most the configured number of carousels, least recently
+ * used first out. Hits, misses, evictions and invalidations are exposed over JMX.
+ */
+@Component(service = {CarouselCache.class, ResourceChangeListener.class, CarouselCacheMBean.class},
+        property = "jmx.objectname=com.myproject:type=CarouselCache")
+@Designate(ocd = CarouselCache.Config.class)
+public class CarouselCache implements ResourceChangeListener, CarouselCacheMBean {
+
+    @ObjectClassDefinition(name = "Carousel Cache")
+    public @interface Config {
+
+        @AttributeDefinition(name = "Max cached carousels")
+        int max_entries() default 1000;
+
+        @AttributeDefinition(name = "Observed paths", description = "Carousels and the assets they reference must be below these paths.")
+        String[] resource_paths() default {"/content"};
+    }
+
+    private static final Logger log = LoggerFactory.getLogger(CarouselCache.class);
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+    private final AtomicLong invalidations = new AtomicLong();
+
+    private volatile int maxEntries;
+
+    private final Map<String, Entry> entries = new LinkedHashMap<String, Entry>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+            if (size() > maxEntries) {
+                evictions.incrementAndGet();
+                return true;
+            }
+            return false;
+        }
+    };
+
+    @Activate
+    @Modified
+    protected void activate(Config config) {
+        maxEntries = Math.max(1, config.max_entries());
+        clear();
+    }
+
+    /**
+     * Returns the cached slides for {@code path}, or null.
+     */
+    List<Slide> get(String path) {
+        Entry entry;
+        synchronized (entries) {
+            entry = entries.get(path);
+        }
+        if (entry != null) {
+            hits.incrementAndGet();
+            return entry.slides;
+        }
+        misses.incrementAndGet();
+        return null;
+    }
+
+    /**
+     * Marks the start of a read; pass the stamp to {@link #put} so slides read while a change
+     * came in are not cached.
+     */
+    long stamp() {
+        return invalidations.get();
+    }
+
+    void put(String path, List<Slide> slides, long stamp) {
+        Entry entry = new Entry(Collections.unmodifiableList(new ArrayList<>(slides)));
+        synchronized (entries) {
+            if (invalidations.get() != stamp) {
+                return;
+            }
+            entries.put(path, entry);
+        }
+        if (log.isDebugEnabled()) {
+            log.debug("Cached {} carousel slides for {} (hits={}, misses={}, evictions={})",
+                    slides.size(), path, hits.get(), misses.get(), evictions.get());
+        }
+    }
+
+    @Override
+    public void onChange(List<ResourceChange> changes) {
+        synchronized (entries) {
+            invalidations.incrementAndGet();
+            Iterator<Map.Entry<String, Entry>> iterator = entries.entrySet().iterator();
+            while (iterator.hasNext()) {
+                Map.Entry<String, Entry> entry = iterator.next();
+                for (ResourceChange change : changes) {
+                    if (isSameOrDescendant(change.getPath(), entry.getKey()) || entry.getValue().references(change.getPath())) {
+                        iterator.remove();
+                        break;
+                    }
+                }
+            }
+        }
+    }
+
+    @Override
+    public long getHitCount() {
+        return hits.get();
+    }
+
+    @Override
+    public long getMissCount() {
+        return misses.get();
+    }
+
+    @Override
+    public long getEvictionCount() {
+        return evictions.get();
+    }
+
+    @Override
+    public long getInvalidationCount() {
+        return invalidations.get();
+    }
+
+    @Override
+    public int getSize() {
+        synchronized (entries) {
+            return entries.size();
+        }
+    }
+
+    @Override
+    public int getMaxSize() {
+        return maxEntries;
+    }
+
+    @Override
+    public void clear() {
+        synchronized (entries) {
+            invalidations.incrementAndGet();
+            entries.clear();
+        }
+    }
+
+    private static boolean isSameOrDescendant(String path, String ancestorPath) {
+        return path.equals(ancestorPath) || path.startsWith(ancestorPath + "/");
+    }
+
+    /**
+     * Slide data read from one item resource, free of any resolver.
+     */
+    static final class Slide {
+        final String title;
+        final CarouselImageDescriptor image;
+
+        Slide(String title, CarouselImageDescriptor image) {
+            this.title = title;
+            this.image = image;
+        }
+
+        static Slide of(Resource item) {
+            return new Slide(item.getValueMap().get("title", String.class),
+                    CarouselImageDescriptor.of(item.getChild("image")));
+        }
+    }
+
+    private static final class Entry {
+        private final List<Slide> slides;
+
+        Entry(List<Slide> slides) {
+            this.slides = slides;
+        }
+
+        /** True if a slide shows the asset at {@code path}, or {@code path} is part of such an asset. */
+        boolean references(String path) {
+            for (Slide slide : slides) {
+                String fileReference = slide.image != null ? slide.image.getFileReference() : null;
+                if (fileReference != null && isSameOrDescendant(path, fileReference)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+    }
+}
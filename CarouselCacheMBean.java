@@ -0,0 +1,22 @@
+// CarouselCacheMBean.java (JMX view of the carousel slide cache)
+package com.myproject.core.models;
+
+/**
+ * Metrics of {@link CarouselCache}, registered as {@code com.myproject:type=CarouselCache}.
+ */
+public interface CarouselCacheMBean {
+
+    long getHitCount();
+
+    long getMissCount();
+
+    long getEvictionCount();
+
+    long getInvalidationCount();
+
+    int getSize();
+
+    int getMaxSize();
+
+    void clear();
+}
@@ -0,0 +1,45 @@
+// CarouselImageDescriptor.java (Lightweight image data for a carousel item)
+package com.myproject.core.models;
+
+import org.apache.sling.api.resource.Resource;
+import org.apache.sling.api.resource.ValueMap;
+
+/**
+ * The few image properties a carousel slide needs, read straight from the "image" child's
+ * ValueMap. Adapting to the Core Components Image model is left to {@link CarouselItem#getImage()}.
+ * Holds no resource, so descriptors can be cached across requests.
+ */
+public class CarouselImageDescriptor {
+
+    private final String path;
+    private final String fileReference;
+    private final String alt;
+
+    private CarouselImageDescriptor(String path, String fileReference, String alt) {
+        this.path = path;
+        this.fileReference = fileReference;
+        this.alt = alt;
+    }
+
+    static CarouselImageDescriptor of(Resource imageResource) {
+        if (imageResource == null) {
+            return null;
+        }
+        ValueMap properties = imageResource.getValueMap();
+        return new CarouselImageDescriptor(imageResource.getPath(),
+                properties.get("fileReference", String.class),
+                properties.get("alt", String.class));
+    }
+
+    public String getPath() {
+        return path;
+    }
+
+    public String getFileReference() {
+        return fileReference;
+    }
+
+    public String getAlt() {
+        return alt;
+    }
+}
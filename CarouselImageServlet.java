@@ -0,0 +1,106 @@
+// CarouselImageServlet.java (JSON endpoint for lazily loaded carousel slide images)
+package com.myproject.core.servlets;
+
+import java.io.IOException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import javax.servlet.Servlet;
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServletResponse;
+import org.apache.sling.api.SlingHttpServletRequest;
+import org.apache.sling.api.SlingHttpServletResponse;
+import org.apache.sling.api.resource.Resource;
+import org.apache.sling.api.resource.ValueMap;
+import org.apache.sling.api.servlets.SlingSafeMethodsServlet;
+import org.apache.sling.models.factory.ModelFactory;
+import org.osgi.service.component.annotations.Component;
+import org.osgi.service.component.annotations.Reference;
+import com.adobe.cq.wcm.core.components.models.Image;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+/**
+ * Returns src, srcset and alt of a carousel slide image, addressed on the carousel with the
+ * image's relative path as suffix, e.g. {@code .../carousel.carouselimage.json/items/item0/image}.
+ * The carousel only renders the first slides with full image markup and fetches the rest from
+ * here as they scroll into view.
+ */
+@Component(service = Servlet.class, property = {
+        "sling.servlet.resourceTypes=" + CarouselImageServlet.RESOURCE_TYPE,
+        "sling.servlet.selectors=carouselimage",
+        "sling.servlet.extensions=json",
+        "sling.servlet.methods=GET"
+})
+public class CarouselImageServlet extends SlingSafeMethodsServlet {
+
+    static final String RESOURCE_TYPE = "myproject/components/carousel";
+
+    private static final ObjectMapper objectMapper = new ObjectMapper();
+
+    private static final String INLINE_FILE_NAME = "file";
+
+    @Reference
+    private ModelFactory modelFactory;
+
+    @Override
+    protected void doGet(SlingHttpServletRequest request, SlingHttpServletResponse response)
+            throws ServletException, IOException {
+
+        Resource resource = getImageResource(request);
+        if (resource == null) {
+            response.sendError(HttpServletResponse.SC_NOT_FOUND);
+            return;
+        }
+        ValueMap properties = resource.getValueMap();
+        // Either a DAM asset reference or a file uploaded inline into the image resource.
+        String fileReference = properties.get("fileReference", String.class);
+        Resource inlineFile = resource.getChild(INLINE_FILE_NAME);
+        if (fileReference == null && inlineFile == null) {
+            response.sendError(HttpServletResponse.SC_NOT_FOUND);
+            return;
+        }
+
+        Map<String, Object> json = new LinkedHashMap<>();
+        Image image = modelFactory.getModelFromWrappedRequest(request, resource, Image.class);
+        if (image != null) {
+            json.put("src", image.getSrc());
+            json.put("srcset", buildSrcset(image));
+            json.put("alt", image.getAlt());
+        } else {
+            // No image model available for this resource, fall back to the original binary.
+            json.put("src", fileReference != null ? fileReference : inlineFile.getPath());
+            json.put("srcset", null);
+            json.put("alt", properties.get("alt", String.class));
+        }
+
+        response.setContentType("application/json");
+        response.setCharacterEncoding("UTF-8");
+        response.getWriter().write(objectMapper.writeValueAsString(json));
+    }
+
+    /**
+     * The image below the requested carousel that the suffix points to, or null.
+     */
+    private Resource getImageResource(SlingHttpServletRequest request) {
+        String suffix = request.getRequestPathInfo().getSuffix();
+        if (suffix == null || suffix.length() < 2 || suffix.contains("..")) {
+            return null;
+        }
+        return request.getResource().getChild(suffix.substring(1));
+    }
+
+    private String buildSrcset(Image image) {
+        String template = image.getSrcUriTemplate();
+        int[] widths = image.getWidths();
+        if (template == null || widths == null || widths.length == 0) {
+            return null;
+        }
+        StringBuilder srcset = new StringBuilder();
+        for (int width : widths) {
+            if (srcset.length() > 0) {
+                srcset.append(", ");
+            }
+            srcset.append(template.replace("{.width}", "." + width)).append(' ').append(width).append('w');
+        }
+        return srcset.toString();
+    }
+}
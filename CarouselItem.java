@@ -4,6 +4,7 @@ package com.myproject.core.models;
 import javax.annotation.PostConstruct;
 import javax.inject.Inject;
 import org.apache.sling.api.resource.Resource;
+import org.apache.sling.api.resource.ResourceResolver;
 import org.apache.sling.models.annotations.DefaultInjectionStrategy;
 import org.apache.sling.models.annotations.Model;
 import org.apache.sling.models.annotations.injectorspecific.Self;
@@ -18,22 +19,81 @@ public class CarouselItem {
     @Self
     private Resource resource;
 
+    private ResourceResolver resourceResolver;
+
+    private CarouselImageDescriptor imageDescriptor;
+
     private Image image;
 
+    private boolean imageAdapted;
+
+    private boolean lazy;
+
+    private String carouselPath;
+
+    public CarouselItem() {
+    }
+
+    /**
+     * Used by {@link Carousel} to build items from already read (possibly cached) slide data
+     * without going through the Sling Models injection for every slide.
+     */
+    CarouselItem(ResourceResolver resourceResolver, String carouselPath, String title,
+                 CarouselImageDescriptor imageDescriptor, boolean lazy) {
+        this.resourceResolver = resourceResolver;
+        this.carouselPath = carouselPath;
+        this.title = title;
+        this.imageDescriptor = imageDescriptor;
+        this.lazy = lazy;
+    }
+
     @PostConstruct
     protected void init() {
-        // Delegate to the OOTB Image model for image rendering.
-        Resource imageResource = resource.getChild("image"); // Assumes image resource is named "image".
-        if (imageResource != null) {
-            image = imageResource.adaptTo(Image.class);
-        }
+        resourceResolver = resource.getResourceResolver();
+        imageDescriptor = CarouselImageDescriptor.of(resource.getChild("image")); // Assumes image resource is named "image".
+        // items live in the carousel's "items" multifield
+        Resource items = resource.getParent();
+        Resource carousel = items != null ? items.getParent() : null;
+        carouselPath = carousel != null ? carousel.getPath() : null;
     }
 
     public String getTitle() {
         return title;
     }
 
+    public CarouselImageDescriptor getImageDescriptor() {
+        return imageDescriptor;
+    }
+
+    /**
+     * True if the slide's image should render as a placeholder that the browser fills in from
+     * {@link #getLazyImageUrl()} once the slide scrolls into view.
+     */
+    public boolean isLazy() {
+        return lazy && getLazyImageUrl() != null;
+    }
+
+    /**
+     * {@code <carousel>.carouselimage.json/<image path below the carousel>}, see CarouselImageServlet.
+     */
+    public String getLazyImageUrl() {
+        if (imageDescriptor == null || carouselPath == null || !imageDescriptor.getPath().startsWith(carouselPath + "/")) {
+            return null;
+        }
+        return carouselPath + ".carouselimage.json" + imageDescriptor.getPath().substring(carouselPath.length());
+    }
+
     public Image getImage() {
+        // Delegate to the OOTB Image model for image rendering, only once something asks for it.
+        if (!imageAdapted) {
+            imageAdapted = true;
+            if (imageDescriptor != null) {
+                Resource imageResource = resourceResolver.getResource(imageDescriptor.getPath());
+                if (imageResource != null) {
+                    image = imageResource.adaptTo(Image.class);
+                }
+            }
+        }
         return image;
     }
 }
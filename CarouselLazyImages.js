@@ -0,0 +1,68 @@
+(function(document) {
+    "use strict";
+
+    var LAZY_IMAGE_SELECTOR = '.carousel-item__image--lazy[data-carousel-image-src]';
+
+    /**
+     * Fetch the image data for a placeholder and swap in a real <img>
+     */
+    function loadImage(placeholder) {
+        var url = placeholder.getAttribute('data-carousel-image-src');
+        placeholder.removeAttribute('data-carousel-image-src');
+
+        fetch(url, { credentials: 'same-origin' })
+            .then(function(response) {
+                if (!response.ok) {
+                    throw new Error('Failed to load carousel image: ' + response.status);
+                }
+                return response.json();
+            })
+            .then(function(data) {
+                var img = document.createElement('img');
+                img.src = data.src;
+                if (data.srcset) {
+                    img.srcset = data.srcset;
+                }
+                img.alt = data.alt || '';
+                img.loading = 'lazy';
+                placeholder.appendChild(img);
+                placeholder.classList.remove('carousel-item__image--lazy');
+            })
+            .catch(function(error) {
+                console.error(error);
+            });
+    }
+
+    function init() {
+        var placeholders = document.querySelectorAll(LAZY_IMAGE_SELECTOR);
+        if (!placeholders.length) {
+            return;
+        }
+
+        // Without IntersectionObserver there is no cheap way to know what is visible, load everything
+        if (!('IntersectionObserver' in window)) {
+            Array.prototype.forEach.call(placeholders, loadImage);
+            return;
+        }
+
+        var observer = new IntersectionObserver(function(entries) {
+            entries.forEach(function(entry) {
+                if (entry.isIntersecting) {
+                    observer.unobserve(entry.target);
+                    loadImage(entry.target);
+                }
+            });
+        }, { rootMargin: '200px' });
+
+        Array.prototype.forEach.call(placeholders, function(placeholder) {
+            observer.observe(placeholder);
+        });
+    }
+
+    if (document.readyState === 'loading') {
+        document.addEventListener('DOMContentLoaded', init);
+    } else {
+        init();
+    }
+
+})(document);
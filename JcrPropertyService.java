@@ -1,103 +1,385 @@
 import org.apache.jackrabbit.api.JackrabbitSession;
 import org.apache.jackrabbit.api.security.user.UserManager;
+import org.apache.sling.api.resource.LoginException;
 import org.apache.sling.api.resource.ResourceResolver;
 import org.apache.sling.api.resource.ResourceResolverFactory;
+import org.apache.sling.api.resource.observation.ResourceChangeListener;
+import org.osgi.framework.BundleContext;
+import org.osgi.framework.ServiceRegistration;
+import org.osgi.service.component.annotations.Activate;
 import org.osgi.service.component.annotations.Component;
+import org.osgi.service.component.annotations.Deactivate;
 import org.osgi.service.component.annotations.Reference;
+import org.osgi.service.metatype.annotations.AttributeDefinition;
+import org.osgi.service.metatype.annotations.Designate;
+import org.osgi.service.metatype.annotations.ObjectClassDefinition;
+import javax.jcr.Binary;
 import javax.jcr.Node;
+import javax.jcr.NodeIterator;
+import javax.jcr.PathNotFoundException;
 import javax.jcr.Property;
 import javax.jcr.PropertyIterator;
 import javax.jcr.RepositoryException;
 import javax.jcr.Session;
 import javax.jcr.Value;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.Hashtable;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
 
 @Component(service = JcrPropertyService.class)
+@Designate(ocd = JcrPropertyService.Config.class)
 public class JcrPropertyService {
 
+    @ObjectClassDefinition(name = "JCR Property Service")
+    public @interface Config {
+
+        @AttributeDefinition(name = "Max pooled resolvers")
+        int pool_max_size() default 8;
+
+        @AttributeDefinition(name = "Borrow timeout (ms)")
+        long pool_borrow_timeout() default 5000;
+
+        @AttributeDefinition(name = "Max idle time (ms)", description = "Idle resolvers are closed after this time.")
+        long pool_max_idle() default 60000;
+
+        @AttributeDefinition(name = "Enable property cache", description = "Cache getNodeProperties(String) results in memory.")
+        boolean cache_enabled() default false;
+
+        @AttributeDefinition(name = "Cached paths", description = "Only nodes below these paths are cached; they are observed for changes.")
+        String[] cache_paths() default {"/conf"};
+
+        @AttributeDefinition(name = "Max cached nodes")
+        int cache_max_entries() default 1000;
+
+        @AttributeDefinition(name = "Cache time to live (ms)")
+        long cache_ttl() default 300000;
+    }
+
     @Reference
     private ResourceResolverFactory resolverFactory;
 
+    private ServiceResolverPool resolverPool;
+
+    private ScheduledExecutorService evictionExecutor;
+
+    private PropertyCache propertyCache;
+
+    private ServiceRegistration<ResourceChangeListener> cacheListenerRegistration;
+
+    @Activate
+    protected void activate(Config config, BundleContext bundleContext) {
+        resolverPool = new ServiceResolverPool(resolverFactory, config.pool_max_size(),
+                config.pool_borrow_timeout(), config.pool_max_idle());
+        evictionExecutor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "jcr-property-service-pool-evictor");
+            thread.setDaemon(true);
+            return thread;
+        });
+        long interval = Math.max(1000, config.pool_max_idle() / 2);
+        evictionExecutor.scheduleWithFixedDelay(resolverPool::evictIdle, interval, interval, TimeUnit.MILLISECONDS);
+
+        if (config.cache_enabled()) {
+            propertyCache = new PropertyCache(config.cache_max_entries(), config.cache_ttl(), config.cache_paths());
+            Hashtable<String, Object> listenerProperties = new Hashtable<>();
+            listenerProperties.put(ResourceChangeListener.PATHS, config.cache_paths());
+            cacheListenerRegistration = bundleContext.registerService(
+                    ResourceChangeListener.class, propertyCache, listenerProperties);
+        }
+    }
+
+    @Deactivate
+    protected void deactivate() {
+        if (cacheListenerRegistration != null) {
+            cacheListenerRegistration.unregister();
+            cacheListenerRegistration = null;
+        }
+        if (propertyCache != null) {
+            propertyCache.clear();
+            propertyCache = null;
+        }
+        evictionExecutor.shutdownNow();
+        resolverPool.close();
+    }
+
+    public ServiceResolverPool.Stats getPoolStats() {
+        return resolverPool.getStats();
+    }
+
     public Map<String, Object> getNodeProperties(String nodePath) {
-        Map<String, Object> propertiesMap = new HashMap<>();
+        PropertyCache cache = propertyCache;
+        if (cache == null || !cache.isCacheable(nodePath)) {
+            Map<String, Object> properties = readNodeProperties(nodePath);
+            return properties != null ? properties : new HashMap<>();
+        }
+        Map<String, Object> cached = cache.get(nodePath);
+        if (cached == null) {
+            long stamp = cache.stamp();
+            Map<String, Object> properties = readNodeProperties(nodePath);
+            if (properties == null) {
+                // don't cache a failed read, the next call goes to the repository again
+                return new HashMap<>();
+            }
+            cached = unmodifiableCopy(properties);
+            cache.put(nodePath, cached, stamp);
+        }
+        // callers own the returned map, as with an uncached read
+        return new HashMap<>(cached);
+    }
+
+    private Map<String, Object> unmodifiableCopy(Map<String, Object> properties) {
+        Map<String, Object> copy = new HashMap<>();
+        for (Map.Entry<String, Object> entry : properties.entrySet()) {
+            Object value = entry.getValue();
+            copy.put(entry.getKey(), value instanceof List ? Collections.unmodifiableList((List<?>) value) : value);
+        }
+        return Collections.unmodifiableMap(copy);
+    }
+
+    /**
+     * @return the properties of {@code nodePath}, or null if the node can't be read
+     */
+    private Map<String, Object> readNodeProperties(String nodePath) {
         ResourceResolver resourceResolver = null;
-        Session session = null;
 
         try {
-            resourceResolver = resolverFactory.getServiceResourceResolver(null);
-            session = resourceResolver.adaptTo(Session.class);
+            resourceResolver = resolverPool.borrow();
+            Session session = resourceResolver.adaptTo(Session.class);
             if (session == null) {
                  // handle session null
-                return propertiesMap;
+                return null;
             }
-            Node node = session.getNode(nodePath);
-            if (node != null) {
-                PropertyIterator properties = node.getProperties();
-                while (properties.hasNext()) {
-                    Property property = properties.nextProperty();
-                    String propertyName = property.getName();
-
-                    if (property.isMultiple()) {
-                        List<Object> values = new ArrayList<>();
-                        Value[] propertyValues = property.getValues();
-                        for (Value value : propertyValues) {
-                            values.add(value.getString());
-                        }
-                        propertiesMap.put(propertyName, values);
-                    } else {
-                        propertiesMap.put(propertyName, property.getValue().getString());
-                    }
+            return readProperties(session.getNode(nodePath), null);
+        } catch (LoginException | RepositoryException e) {
+           // handle exception
+            return null;
+        } finally {
+            // the pooled session stays open, it goes back to the pool with the resolver
+            resolverPool.release(resourceResolver);
+        }
+    }
+
+    /**
+     * Reads the properties of {@code nodePath} keeping their JCR types, without converting every
+     * value to a String or reading binaries.
+     *
+     * @return the snapshot, or null if the node can't be read
+     */
+    public PropertySnapshot getPropertySnapshot(String nodePath) {
+        ResourceResolver resourceResolver = null;
+
+        try {
+            resourceResolver = resolverPool.borrow();
+            Session session = resourceResolver.adaptTo(Session.class);
+            if (session == null) {
+                // handle session null
+                return null;
+            }
+            return PropertySnapshot.of(session.getNode(nodePath));
+        } catch (LoginException | RepositoryException e) {
+            // handle exception
+            return null;
+        } finally {
+            resolverPool.release(resourceResolver);
+        }
+    }
+
+    /**
+     * Streams a single-valued binary property to {@code out} without buffering it in memory.
+     *
+     * @return the number of bytes copied, or -1 if the property can't be read
+     */
+    public long copyBinary(String propertyPath, OutputStream out) throws IOException {
+        ResourceResolver resourceResolver = null;
+
+        try {
+            resourceResolver = resolverPool.borrow();
+            Session session = resourceResolver.adaptTo(Session.class);
+            if (session == null) {
+                // handle session null
+                return -1;
+            }
+            Binary binary = session.getProperty(propertyPath).getBinary();
+            try (InputStream in = binary.getStream()) {
+                byte[] buffer = new byte[8192];
+                long total = 0;
+                int read;
+                while ((read = in.read(buffer)) != -1) {
+                    out.write(buffer, 0, read);
+                    total += read;
                 }
+                return total;
+            } finally {
+                binary.dispose();
             }
-        } catch (RepositoryException e) {
-           // handle exception
+        } catch (LoginException | RepositoryException e) {
+            // handle exception
+            return -1;
         } finally {
-            if (session != null) {
-                session.logout();
+            resolverPool.release(resourceResolver);
+        }
+    }
+
+    /**
+     * Reads the properties of all {@code nodePaths} with a single session. Paths that don't exist
+     * are left out of the result.
+     *
+     * @param propertyNames only these properties are read and converted, or all if null
+     * @return property maps keyed by node path, in the order of {@code nodePaths}
+     */
+    public Map<String, Map<String, Object>> getNodeProperties(Collection<String> nodePaths, Set<String> propertyNames) {
+        Map<String, Map<String, Object>> nodeProperties = new LinkedHashMap<>();
+        ResourceResolver resourceResolver = null;
+
+        try {
+            resourceResolver = resolverPool.borrow();
+            Session session = resourceResolver.adaptTo(Session.class);
+            if (session == null) {
+                // handle session null
+                return nodeProperties;
             }
-            if (resourceResolver != null) {
-                resourceResolver.close();
+            for (String nodePath : nodePaths) {
+                try {
+                    nodeProperties.put(nodePath, readProperties(session.getNode(nodePath), propertyNames));
+                } catch (PathNotFoundException e) {
+                    // skip missing nodes, the others are still read
+                }
             }
+        } catch (LoginException | RepositoryException e) {
+            // handle exception
+        } finally {
+            resolverPool.release(resourceResolver);
+        }
+        return nodeProperties;
+    }
+
+    /**
+     * Reads the properties of {@code rootPath} and its descendants down to {@code depth} levels
+     * (0 reads only the root) with a single session.
+     *
+     * @param propertyNames only these properties are read and converted, or all if null
+     * @return property maps keyed by node path, in document order
+     */
+    public Map<String, Map<String, Object>> getNodeProperties(String rootPath, int depth, Set<String> propertyNames) {
+        Map<String, Map<String, Object>> nodeProperties = new LinkedHashMap<>();
+        ResourceResolver resourceResolver = null;
+
+        try {
+            resourceResolver = resolverPool.borrow();
+            Session session = resourceResolver.adaptTo(Session.class);
+            if (session == null) {
+                // handle session null
+                return nodeProperties;
+            }
+            collectProperties(session.getNode(rootPath), depth, propertyNames, nodeProperties);
+        } catch (LoginException | RepositoryException e) {
+            // handle exception
+        } finally {
+            resolverPool.release(resourceResolver);
+        }
+        return nodeProperties;
+    }
+
+    private void collectProperties(Node node, int depth, Set<String> propertyNames,
+                                   Map<String, Map<String, Object>> nodeProperties) throws RepositoryException {
+        nodeProperties.put(node.getPath(), readProperties(node, propertyNames));
+        if (depth > 0) {
+            NodeIterator children = node.getNodes();
+            while (children.hasNext()) {
+                collectProperties(children.nextNode(), depth - 1, propertyNames, nodeProperties);
+            }
+        }
+    }
+
+    private Map<String, Object> readProperties(Node node, Set<String> propertyNames) throws RepositoryException {
+        Map<String, Object> propertiesMap = new HashMap<>();
+        if (propertyNames != null) {
+            // look up only the requested names instead of iterating every property on the node
+            for (String propertyName : propertyNames) {
+                if (node.hasProperty(propertyName)) {
+                    propertiesMap.put(propertyName, toValue(node.getProperty(propertyName)));
+                }
+            }
+            return propertiesMap;
+        }
+        PropertyIterator properties = node.getProperties();
+        while (properties.hasNext()) {
+            Property property = properties.nextProperty();
+            propertiesMap.put(property.getName(), toValue(property));
         }
         return propertiesMap;
     }
 
+    private Object toValue(Property property) throws RepositoryException {
+        if (property.isMultiple()) {
+            List<Object> values = new ArrayList<>();
+            Value[] propertyValues = property.getValues();
+            for (Value value : propertyValues) {
+                values.add(value.getString());
+            }
+            return values;
+        }
+        return property.getValue().getString();
+    }
+
     public void setNodeProperty(String nodePath, String propertyName, Object propertyValue) {
         ResourceResolver resourceResolver = null;
-        Session session = null;
 
         try {
-            resourceResolver = resolverFactory.getServiceResourceResolver(null);
-            session = resourceResolver.adaptTo(Session.class);
+            resourceResolver = resolverPool.borrow();
+            Session session = resourceResolver.adaptTo(Session.class);
             if (session == null) {
                 // handle session null
                 return;
             }
             Node node = session.getNode(nodePath);
             if (node != null) {
-                if (propertyValue instanceof List) {
-                    List<?> listValue = (List<?>) propertyValue;
-                    String[] stringValues = listValue.stream()
-                            .map(Object::toString)
-                            .toArray(String[]::new);
-                    node.setProperty(propertyName, stringValues);
-                } else {
-                    node.setProperty(propertyName, propertyValue.toString());
-                }
+                applyProperty(node, propertyName, propertyValue);
                  session.save();
+                invalidateCached(nodePath);
             }
-        } catch (RepositoryException e) {
+        } catch (LoginException | RepositoryException e) {
             // handle exception
         } finally {
-            if (session != null) {
-                session.logout();
-            }
-            if (resourceResolver != null) {
-                resourceResolver.close();
-            }
+            resolverPool.release(resourceResolver);
+        }
+    }
+
+    /**
+     * Opens a writer that queues property writes and saves them every {@code saveInterval} changes.
+     * The writer holds one pooled resolver until it is closed.
+     */
+    public PropertyBatchWriter openBatchWriter(int saveInterval) throws LoginException {
+        return new PropertyBatchWriter(resolverPool, resolverPool.borrow(), saveInterval, this::invalidateCached);
+    }
+
+    private void invalidateCached(String nodePath) {
+        PropertyCache cache = propertyCache;
+        if (cache != null) {
+            cache.invalidate(nodePath);
+        }
+    }
+
+    static void applyProperty(Node node, String propertyName, Object propertyValue) throws RepositoryException {
+        if (propertyValue instanceof List) {
+            List<?> listValue = (List<?>) propertyValue;
+            String[] stringValues = listValue.stream()
+                    .map(Object::toString)
+                    .toArray(String[]::new);
+            node.setProperty(propertyName, stringValues);
+        } else {
+            node.setProperty(propertyName, propertyValue.toString());
         }
     }
 }
@@ -0,0 +1,153 @@
+package com.example.core.servlets;
+
+import javax.jcr.Node;
+import javax.jcr.NodeIterator;
+import javax.jcr.RepositoryException;
+import javax.jcr.Session;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * All moves of one {@link MovePageServlet} run, computed from a single snapshot of the page tree
+ * before anything is changed.
+ *
+ * A page named like its parent is a duplicate level, e.g. {@code /products/products}. Its child
+ * pages move up into the first page of the run of equally named pages, so
+ * {@code /products/products/a} and {@code /products/products/products/b} both end up below
+ * {@code /products}. The emptied duplicate pages stay in place. A move whose target name is
+ * already taken is not planned and reported as a conflict instead.
+ *
+ * Moves are ordered deepest source first: a move inside a subtree that moves later happens
+ * while the subtree is still at its original location, so no moved content is visited twice.
+ */
+class MovePagePlan {
+
+    private static final String CQ_PAGE = "cq:Page";
+
+    private final int pageCount;
+    private final List<Move> moves;
+    private final List<String> conflicts;
+
+    private MovePagePlan(int pageCount, List<Move> moves, List<String> conflicts) {
+        this.pageCount = pageCount;
+        this.moves = moves;
+        this.conflicts = conflicts;
+    }
+
+    static MovePagePlan create(Session session, String rootPath) throws RepositoryException {
+        // compact pre-order index of the page tree: path and parent index per page
+        List<String> paths = new ArrayList<>();
+        int[] parents = new int[64];
+        Deque<Node> stack = new ArrayDeque<>();
+        Deque<Integer> parentStack = new ArrayDeque<>();
+        stack.push(session.getNode(rootPath));
+        parentStack.push(-1);
+        while (!stack.isEmpty()) {
+            Node node = stack.pop();
+            int index = paths.size();
+            if (index == parents.length) {
+                parents = Arrays.copyOf(parents, index * 2);
+            }
+            paths.add(node.getPath());
+            parents[index] = parentStack.pop();
+            NodeIterator children = node.getNodes();
+            while (children.hasNext()) {
+                Node child = children.nextNode();
+                if (child.isNodeType(CQ_PAGE)) {
+                    stack.push(child);
+                    parentStack.push(index);
+                }
+            }
+        }
+
+        int pageCount = paths.size();
+        String[] names = new String[pageCount];
+        for (int i = 0; i < pageCount; i++) {
+            String path = paths.get(i);
+            names[i] = path.substring(path.lastIndexOf('/') + 1);
+        }
+
+        // first page of each run of equally named pages, -1 for pages that are not a duplicate;
+        // pre-order guarantees the parent is resolved before its children
+        int[] chainTops = new int[pageCount];
+        Map<Integer, Set<String>> takenNames = new HashMap<>();
+        chainTops[0] = -1;
+        for (int i = 1; i < pageCount; i++) {
+            int parent = parents[i];
+            if (names[i].equals(names[parent])) {
+                chainTops[i] = chainTops[parent] >= 0 ? chainTops[parent] : parent;
+                takenNames.putIfAbsent(chainTops[i], new HashSet<>());
+            } else {
+                chainTops[i] = -1;
+            }
+        }
+        for (int i = 1; i < pageCount; i++) {
+            Set<String> taken = takenNames.get(parents[i]);
+            if (taken != null) {
+                taken.add(names[i]);
+            }
+        }
+
+        List<Move> moves = new ArrayList<>();
+        List<String> conflicts = new ArrayList<>();
+        for (int i = 1; i < pageCount; i++) {
+            int parent = parents[i];
+            if (chainTops[i] >= 0 || chainTops[parent] < 0) {
+                continue;
+            }
+            int top = chainTops[parent];
+            Set<String> taken = takenNames.get(top);
+            String target = paths.get(top) + "/" + names[i];
+            if (taken.add(names[i])) {
+                moves.add(new Move(paths.get(i), target));
+            } else {
+                conflicts.add(paths.get(i) + " -> " + target);
+            }
+        }
+
+        moves.sort(Comparator.comparingInt((Move move) -> depth(move.source)).reversed());
+        return new MovePagePlan(pageCount, Collections.unmodifiableList(moves), Collections.unmodifiableList(conflicts));
+    }
+
+    private static int depth(String path) {
+        int depth = 0;
+        for (int i = 0; i < path.length(); i++) {
+            if (path.charAt(i) == '/') {
+                depth++;
+            }
+        }
+        return depth;
+    }
+
+    int getPageCount() {
+        return pageCount;
+    }
+
+    /** Planned moves in execution order, source and target as in the snapshot. */
+    List<Move> getMoves() {
+        return moves;
+    }
+
+    List<String> getConflicts() {
+        return conflicts;
+    }
+
+    static final class Move {
+        final String source;
+        final String target;
+
+        Move(String source, String target) {
+            this.source = source;
+            this.target = target;
+        }
+    }
+}
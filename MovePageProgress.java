@@ -0,0 +1,134 @@
+package com.example.core.servlets;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Live state of one background {@link MovePageServlet} job. Safe to read from the status
+ * request while the job thread is still updating it.
+ */
+public class MovePageProgress {
+
+    public enum State { QUEUED, RUNNING, SUCCEEDED, FAILED }
+
+    private final String jobId;
+    private final String path;
+    private final String userId;
+    private final long submitTime = System.currentTimeMillis();
+    private volatile long startTime;
+    private volatile long endTime;
+    private volatile State state = State.QUEUED;
+    private volatile String error;
+
+    private volatile long pagesScanned;
+    private volatile long pagesPlanned;
+    private volatile long conflicts;
+    private final AtomicLong pagesMoved = new AtomicLong();
+    private final AtomicLong nodesScanned = new AtomicLong();
+    private final AtomicLong referencesUpdated = new AtomicLong();
+    private final AtomicLong saves = new AtomicLong();
+
+    MovePageProgress(String jobId, String path, String userId) {
+        this.jobId = jobId;
+        this.path = path;
+        this.userId = userId;
+    }
+
+    void start() {
+        startTime = System.currentTimeMillis();
+        state = State.RUNNING;
+    }
+
+    void finish(String error) {
+        this.error = error;
+        endTime = System.currentTimeMillis();
+        state = error == null ? State.SUCCEEDED : State.FAILED;
+    }
+
+    void planned(long pagesScanned, long pagesPlanned, long conflicts) {
+        this.pagesScanned = pagesScanned;
+        this.pagesPlanned = pagesPlanned;
+        this.conflicts = conflicts;
+    }
+
+    void pageMoved() {
+        pagesMoved.incrementAndGet();
+    }
+
+    void nodeScanned() {
+        nodesScanned.incrementAndGet();
+    }
+
+    void referenceUpdated() {
+        referencesUpdated.incrementAndGet();
+    }
+
+    void saved() {
+        saves.incrementAndGet();
+    }
+
+    public String getJobId() {
+        return jobId;
+    }
+
+    /** The user who submitted the job; it runs with their permissions. */
+    public String getUserId() {
+        return userId;
+    }
+
+    public State getState() {
+        return state;
+    }
+
+    public boolean isFinished() {
+        return endTime > 0;
+    }
+
+    public long getEndTime() {
+        return endTime;
+    }
+
+    public long getPagesMoved() {
+        return pagesMoved.get();
+    }
+
+    public long getReferencesUpdated() {
+        return referencesUpdated.get();
+    }
+
+    public long getElapsedMillis() {
+        if (startTime == 0) {
+            return 0;
+        }
+        return (endTime > 0 ? endTime : System.currentTimeMillis()) - startTime;
+    }
+
+    /** Pages scanned plus referencing nodes scanned, per second of run time. */
+    public double getNodesPerSecond() {
+        long elapsed = getElapsedMillis();
+        return elapsed > 0 ? (pagesScanned + nodesScanned.get()) * 1000.0 / elapsed : 0;
+    }
+
+    public Map<String, Object> toMap() {
+        Map<String, Object> map = new LinkedHashMap<>();
+        map.put("jobId", jobId);
+        map.put("path", path);
+        map.put("user", userId);
+        map.put("state", state.name());
+        map.put("submitted", submitTime);
+        map.put("pagesScanned", pagesScanned);
+        map.put("pagesPlanned", pagesPlanned);
+        map.put("conflicts", conflicts);
+        map.put("pagesMoved", pagesMoved.get());
+        map.put("nodesScanned", nodesScanned.get());
+        map.put("referencesUpdated", referencesUpdated.get());
+        map.put("saves", saves.get());
+        map.put("elapsedMillis", getElapsedMillis());
+        map.put("nodesPerSecond", Math.round(getNodesPerSecond() * 10) / 10.0);
+        if (error != null) {
+            map.put("error", error);
+        }
+        return map;
+    }
+}
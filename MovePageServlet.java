@@ -1,112 +1,376 @@
 package com.example.core.servlets;
 
-import com.day.cq.commons.jcr.JcrUtil;
 import com.day.cq.wcm.api.Page;
 import com.day.cq.wcm.api.PageManager;
-import com.day.cq.wcm.api.WCMException;
-import com.day.cq.wcm.api.reference.Reference;
-import com.day.cq.wcm.api.reference.ReferenceSearch;
+import com.fasterxml.jackson.databind.ObjectMapper;
 import org.apache.sling.api.SlingHttpServletRequest;
 import org.apache.sling.api.SlingHttpServletResponse;
-import org.apache.sling.api.resource.Resource;
+import org.apache.sling.api.resource.LoginException;
 import org.apache.sling.api.resource.ResourceResolver;
+import org.apache.sling.api.resource.ResourceResolverFactory;
 import org.apache.sling.api.servlets.SlingAllMethodsServlet;
+import org.osgi.service.component.annotations.Activate;
 import org.osgi.service.component.annotations.Component;
+import org.osgi.service.component.annotations.Deactivate;
 import org.osgi.service.component.annotations.Reference;
+import org.osgi.service.metatype.annotations.AttributeDefinition;
+import org.osgi.service.metatype.annotations.Designate;
+import org.osgi.service.metatype.annotations.ObjectClassDefinition;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import javax.jcr.Node;
+import javax.jcr.NodeIterator;
+import javax.jcr.Property;
+import javax.jcr.PropertyIterator;
+import javax.jcr.PropertyType;
 import javax.jcr.RepositoryException;
+import javax.jcr.Session;
+import javax.jcr.Value;
 import javax.servlet.Servlet;
 import javax.servlet.ServletException;
+import javax.servlet.http.HttpServletResponse;
 import java.io.IOException;
-import java.util.List;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
 
+/**
+ * Collapses pages named like their parent, e.g. {@code /products/products}, by moving their child
+ * pages up (see {@link MovePagePlan}), and rewrites references to the moved pages.
+ *
+ * References are rewritten in one walk over each configured reference root, {@code /content} by
+ * default so that experience fragments, other sites, language copies and assets are included.
+ * A {@code referenceRoot} parameter narrows the walk to a single subtree.
+ *
+ * A POST starts the restructuring as a background job and returns a job ID right away;
+ * {@code GET /bin/movePageServlet/status?jobId=...} reports its progress to the user who started it.
+ * The job runs with the permissions of that user, through a service resolver impersonating them,
+ * so it can only move and rewrite what they could change themselves. Jobs run one at a time, so
+ * two restructurings of the same tree never interleave. On deactivation the running job saves its
+ * pending changes and stops at the next move or node, and queued jobs finish without running.
+ */
 @Component(service = Servlet.class, property = {
         "sling.servlet.paths=/bin/movePageServlet",
-        "sling.servlet.methods=GET"
+        "sling.servlet.paths=/bin/movePageServlet/status",
+        "sling.servlet.methods=GET",
+        "sling.servlet.methods=POST"
 })
+@Designate(ocd = MovePageServlet.Config.class)
 public class MovePageServlet extends SlingAllMethodsServlet {
 
+    @ObjectClassDefinition(name = "Move Page Servlet")
+    public @interface Config {
+
+        @AttributeDefinition(name = "Reference roots", description = "Subtrees searched for references to moved pages, unless a request names its own referenceRoot.")
+        String[] reference_roots() default {"/content"};
+    }
+
     private static final Logger LOG = LoggerFactory.getLogger(MovePageServlet.class);
 
+    private static final int DEFAULT_BATCH_SIZE = 500;
+
+    private static final String STATUS_PATH = "/bin/movePageServlet/status";
+
+    /** Its service user needs impersonation rights for the authors allowed to run moves. */
+    private static final String SUBSERVICE = "page-move";
+
+    /** Finished jobs are reported for this long, then forgotten. */
+    private static final long FINISHED_JOB_RETENTION = 24 * 60 * 60 * 1000L;
+
+    /** How long deactivation waits for a stopping job to save its pending changes. */
+    private static final long JOB_STOP_TIMEOUT_SECONDS = 60;
+
+    private static final ObjectMapper objectMapper = new ObjectMapper();
+
     @Reference
-    private ReferenceSearch referenceSearch;
+    private ResourceResolverFactory resolverFactory;
+
+    private final Map<String, MovePageProgress> jobs = new ConcurrentHashMap<>();
+
+    private ExecutorService executor;
+
+    private String[] referenceRoots;
+
+    /** Set on deactivation; the running job saves what it has and stops at its next move or node. */
+    private volatile boolean stopping;
+
+    @Activate
+    protected void activate(Config config) {
+        referenceRoots = config.reference_roots();
+        executor = Executors.newSingleThreadExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "move-page-servlet-job");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    @Deactivate
+    protected void deactivate() {
+        stopping = true;
+        executor.shutdown();
+        try {
+            if (!executor.awaitTermination(JOB_STOP_TIMEOUT_SECONDS, TimeUnit.SECONDS)) {
+                LOG.warn("Page move job did not stop within {} s", JOB_STOP_TIMEOUT_SECONDS);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
 
     @Override
     protected void doGet(SlingHttpServletRequest request, SlingHttpServletResponse response) throws ServletException, IOException {
+        if (!STATUS_PATH.equals(request.getRequestPathInfo().getResourcePath())) {
+            // moves change content, they are only started by POST
+            response.sendError(HttpServletResponse.SC_METHOD_NOT_ALLOWED);
+            return;
+        }
+        writeStatus(request.getParameter("jobId"), request.getResourceResolver().getUserID(), response);
+    }
+
+    @Override
+    protected void doPost(SlingHttpServletRequest request, SlingHttpServletResponse response) throws ServletException, IOException {
+        if (STATUS_PATH.equals(request.getRequestPathInfo().getResourcePath())) {
+            response.sendError(HttpServletResponse.SC_METHOD_NOT_ALLOWED);
+            return;
+        }
+        String userId = request.getResourceResolver().getUserID();
+        if (userId == null) {
+            response.sendError(HttpServletResponse.SC_FORBIDDEN);
+            return;
+        }
+
         String path = request.getParameter("path");
-        if (path == null path.isEmpty()) {
+        if (path == null || path.isEmpty()) {
             response.getWriter().write("Please provide a valid path.");
             return;
         }
+        // references are rewritten in one pass over these subtrees, by default the configured roots
+        String referenceRootParameter = request.getParameter("referenceRoot");
+        String[] roots = referenceRootParameter == null || referenceRootParameter.isEmpty()
+                ? referenceRoots : new String[] {referenceRootParameter};
+        int batchSize = parseBatchSize(request.getParameter("batchSize"));
 
-        ResourceResolver resourceResolver = request.getResourceResolver();
-        PageManager pageManager = resourceResolver.adaptTo(PageManager.class);
+        MovePageProgress progress = new MovePageProgress(UUID.randomUUID().toString(), path, userId);
+        pruneFinishedJobs();
+        jobs.put(progress.getJobId(), progress);
+        executor.submit(() -> runJob(path, roots, batchSize, progress));
+        LOG.info("Submitted page move job {} for {}", progress.getJobId(), path);
 
-        if (pageManager == null) {
-            response.getWriter().write("PageManager is not available.");
+        Map<String, Object> json = new LinkedHashMap<>();
+        json.put("jobId", progress.getJobId());
+        json.put("status", STATUS_PATH + "?jobId=" + progress.getJobId());
+        response.setStatus(HttpServletResponse.SC_ACCEPTED);
+        writeJson(response, json);
+    }
+
+    private void writeStatus(String jobId, String userId, SlingHttpServletResponse response) throws IOException {
+        MovePageProgress progress = jobId != null ? jobs.get(jobId) : null;
+        // other users' jobs are reported as unknown, a job ID alone doesn't grant access
+        if (progress == null || !progress.getUserId().equals(userId)) {
+            response.sendError(HttpServletResponse.SC_NOT_FOUND, "Unknown job " + jobId);
             return;
         }
+        writeJson(response, progress.toMap());
+    }
 
-        try {
+    private static void writeJson(SlingHttpServletResponse response, Map<String, Object> json) throws IOException {
+        response.setContentType("application/json");
+        response.setCharacterEncoding("UTF-8");
+        response.getWriter().write(objectMapper.writeValueAsString(json));
+    }
+
+    private void pruneFinishedJobs() {
+        long cutoff = System.currentTimeMillis() - FINISHED_JOB_RETENTION;
+        jobs.values().removeIf(job -> job.isFinished() && job.getEndTime() < cutoff);
+    }
+
+    private void runJob(String path, String[] referenceRoots, int batchSize, MovePageProgress progress) {
+        if (stopping) {
+            progress.finish("Stopped before it started, the servlet was deactivated.");
+            return;
+        }
+        progress.start();
+        try (ResourceResolver resourceResolver = resolverFactory.getServiceResourceResolver(impersonating(progress.getUserId()))) {
+            PageManager pageManager = resourceResolver.adaptTo(PageManager.class);
+            Session session = resourceResolver.adaptTo(Session.class);
+            if (pageManager == null || session == null) {
+                progress.finish("PageManager is not available.");
+                return;
+            }
             Page rootPage = pageManager.getPage(path);
-            if (rootPage != null) {
-                iterateAndMovePages(rootPage, pageManager, resourceResolver);
-                response.getWriter().write("Operation completed successfully.");
-            } else {
-                response.getWriter().write("Root page not found.");
+            if (rootPage == null) {
+                progress.finish("Root page not found.");
+                return;
+            }
+            MoveContext context = new MoveContext(session, batchSize, progress);
+            MovePagePlan plan = MovePagePlan.create(session, rootPage.getPath());
+            progress.planned(plan.getPageCount(), plan.getMoves().size(), plan.getConflicts().size());
+            for (String conflict : plan.getConflicts()) {
+                LOG.warn("Not moving page {}, the target name is already taken", conflict);
+            }
+            executePlan(plan, context);
+            if (!context.pathMap.isEmpty()) {
+                for (String referenceRoot : referenceRoots) {
+                    if (stopping) {
+                        break;
+                    }
+                    updateReferences(referenceRoot, context);
+                }
+            }
+            context.save();
+            if (stopping) {
+                LOG.warn("Page move job {} for {} stopped by deactivation after {} moves",
+                        progress.getJobId(), path, progress.getPagesMoved());
+                progress.finish("Stopped after " + progress.getPagesMoved()
+                        + " moves, the servlet was deactivated; references may not be fully updated.");
+                return;
             }
+            progress.finish(null);
+            LOG.info("Page move job {} for {} completed: moved {} pages, updated {} references in {} ms",
+                    progress.getJobId(), path, progress.getPagesMoved(), progress.getReferencesUpdated(),
+                    progress.getElapsedMillis());
+        } catch (LoginException e) {
+            LOG.error("Could not open a resolver as {} for page move job {}", progress.getUserId(), progress.getJobId(), e);
+            progress.finish("Could not open a resolver as " + progress.getUserId() + ": " + e.getMessage());
         } catch (Exception e) {
             LOG.error("Error occurred while processing pages", e);
-            response.getWriter().write("An error occurred: " + e.getMessage());
+            progress.finish("An error occurred: " + e.getMessage());
         }
     }
 
-    private void iterateAndMovePages(Page parentPage, PageManager pageManager, ResourceResolver resourceResolver) throws RepositoryException, WCMException {
-        for (Page childPage : parentPage.listChildren()) {
-            if (childPage.getName().equals(parentPage.getName())) {
-                movePage(childPage, parentPage, pageManager, resourceResolver);
+    private void executePlan(MovePagePlan plan, MoveContext context) throws RepositoryException {
+        for (MovePagePlan.Move move : plan.getMoves()) {
+            if (stopping) {
+                return;
             }
-            // Recursively iterate over child pages
-            iterateAndMovePages(childPage, pageManager, resourceResolver);
+            // sources are still at their snapshot location, deeper moves run before their ancestors move
+            context.session.move(move.source, move.target);
+            context.pathMap.put(move.source, move.target);
+            LOG.info("Moved page {} to {}", move.source, move.target);
+            context.progress.pageMoved();
+            context.changed();
         }
     }
 
-    private void movePage(Page childPage, Page parentPage, PageManager pageManager, ResourceResolver resourceResolver) throws RepositoryException, WCMException {
-        String newParentPath = parentPage.getParent().getPath();
-        String newPagePath = newParentPath + "/" + childPage.getName();
-
-        // Move the page
-        Node childNode = childPage.adaptTo(Node.class);
-        if (childNode != null) {
-            JcrUtil.move(childNode, newPagePath, resourceResolver.adaptTo(Session.class));
-            LOG.info("Moved page {} to {}", childPage.getPath(), newPagePath);
+    /**
+     * Walks the referencing content once and rewrites every string or path property that
+     * mentions a moved page, instead of running a repository-wide reference search per page.
+     */
+    private void updateReferences(String referenceRoot, MoveContext context) throws RepositoryException {
+        if (!context.session.nodeExists(referenceRoot)) {
+            LOG.warn("Reference root {} does not exist, references were not updated", referenceRoot);
+            return;
+        }
+        Deque<Node> stack = new ArrayDeque<>();
+        stack.push(context.session.getNode(referenceRoot));
+        while (!stack.isEmpty() && !stopping) {
+            Node node = stack.pop();
+            context.progress.nodeScanned();
+            try {
+                updateReferences(node, context);
+            } catch (RepositoryException e) {
+                LOG.error("Error updating references in {}", node.getPath(), e);
+            }
+            NodeIterator children = node.getNodes();
+            while (children.hasNext()) {
+                stack.push(children.nextNode());
+            }
+        }
+    }
 
-            // Update references
-            updateReferences(childPage.getPath(), newPagePath, resourceResolver);
+    private void updateReferences(Node node, MoveContext context) throws RepositoryException {
+        PropertyIterator properties = node.getProperties();
+        while (properties.hasNext()) {
+            Property property = properties.nextProperty();
+            int type = property.getType();
+            if ((type != PropertyType.STRING && type != PropertyType.PATH) || property.getDefinition().isProtected()) {
+                continue;
+            }
+            if (property.isMultiple()) {
+                Value[] values = property.getValues();
+                String[] rewritten = new String[values.length];
+                boolean changed = false;
+                for (int i = 0; i < values.length; i++) {
+                    String value = values[i].getString();
+                    rewritten[i] = context.pathMap.rewrite(value);
+                    changed |= rewritten[i] != value;
+                }
+                if (changed) {
+                    node.setProperty(property.getName(), rewritten, type);
+                    referenceUpdated(node, property.getName(), context);
+                }
+            } else {
+                String value = property.getString();
+                String rewritten = context.pathMap.rewrite(value);
+                if (rewritten != value) {
+                    node.setProperty(property.getName(), rewritten, type);
+                    referenceUpdated(node, property.getName(), context);
+                }
+            }
         }
     }
 
-    private void updateReferences(String oldPath, String newPath, ResourceResolver resourceResolver) {
-        List<Reference> references = referenceSearch.search(resourceResolver, oldPath);
-        for (Reference reference : references) {
+    private void referenceUpdated(Node node, String propertyName, MoveContext context) throws RepositoryException {
+        LOG.info("Updated reference in {} for property {}", node.getPath(), propertyName);
+        context.progress.referenceUpdated();
+        context.changed();
+    }
+
+    private static Map<String, Object> impersonating(String userId) {
+        Map<String, Object> authInfo = new HashMap<>();
+        authInfo.put(ResourceResolverFactory.SUBSERVICE, SUBSERVICE);
+        authInfo.put(ResourceResolverFactory.USER_IMPERSONATION, userId);
+        return authInfo;
+    }
+
+    private static int parseBatchSize(String value) {
+        if (value != null) {
             try {
-                Resource resource = reference.getResource();
-                if (resource != null) {
-                    Node node = resource.adaptTo(Node.class);
-                    if (node != null) {
-                        String propertyName = reference.getPropertyName();
-                        if (node.hasProperty(propertyName)) {
-                            node.setProperty(propertyName, newPath);
-                            LOG.info("Updated reference in {} for property {}", resource.getPath(), propertyName);
-                        }
-                    }
-                }
-            } catch (RepositoryException e) {
-                LOG.error("Error updating reference for {}", reference.getResource().getPath(), e);
+                return Math.max(1, Integer.parseInt(value));
+            } catch (NumberFormatException e) {
+                LOG.warn("Ignoring invalid batchSize {}", value);
+            }
+        }
+        return DEFAULT_BATCH_SIZE;
+    }
+
+    /**
+     * State of one move request: the collected path mappings and the pending change count.
+     */
+    private static final class MoveContext {
+        private final Session session;
+        private final int batchSize;
+        private final PagePathMap pathMap = new PagePathMap();
+        private final MovePageProgress progress;
+        private int pendingChanges;
+
+        MoveContext(Session session, int batchSize, MovePageProgress progress) {
+            this.session = session;
+            this.batchSize = batchSize;
+            this.progress = progress;
+        }
+
+        void changed() throws RepositoryException {
+            if (++pendingChanges >= batchSize) {
+                save();
+            }
+        }
+
+        void save() throws RepositoryException {
+            if (pendingChanges > 0 && session.hasPendingChanges()) {
+                session.save();
+                progress.saved();
+                LOG.debug("Saved {} changes", pendingChanges);
             }
+            pendingChanges = 0;
         }
     }
 }
@@ -2,6 +2,10 @@ import javax.jcr.Node;
 import javax.jcr.Property;
 import javax.jcr.RepositoryException;
 import javax.jcr.Session;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.Collections;
+import java.util.concurrent.ThreadLocalRandom;
 import org.apache.sling.api.resource.Resource;
 import org.apache.sling.api.resource.ResourceResolver;
 import org.apache.sling.api.resource.ModifiableValueMap;
@@ -12,6 +16,16 @@ public class NodePropertyStringReplacer {
     
     private static final Logger log = LoggerFactory.getLogger(NodePropertyStringReplacer.class);
     
+    // Fraction of updates logged with full old/new values; the rest only log the property name
+    private double valueLogSampleRate = 0;
+    
+    /**
+     * Opt in to logging full old and new values for a sample (0 to 1) of the updates
+     */
+    public void setValueLogSampleRate(double valueLogSampleRate) {
+        this.valueLogSampleRate = valueLogSampleRate;
+    }
+    
     /**
      * Method 1: Using JCR API directly
      */
@@ -34,8 +48,7 @@ public class NodePropertyStringReplacer {
                     // Save the node
                     node.getSession().save();
                     
-                    log.info("Property '{}' updated from '{}' to '{}'", 
-                            propertyName, currentValue, newValue);
+                    logUpdate(propertyName, currentValue, newValue);
                 } else {
                     log.info("Property '{}' does not contain the search string '{}'", 
                             propertyName, searchString);
@@ -73,8 +86,7 @@ public class NodePropertyStringReplacer {
                         // Commit the changes
                         resourceResolver.commit();
                         
-                        log.info("Property '{}' updated from '{}' to '{}'", 
-                                propertyName, currentValue, newValue);
+                        logUpdate(propertyName, currentValue, newValue);
                     } else {
                         log.info("Property '{}' does not contain the search string '{}'", 
                                 propertyName, searchString);
@@ -109,8 +121,7 @@ public class NodePropertyStringReplacer {
                         node.setProperty(propertyName, newValue);
                         hasChanges = true;
                         
-                        log.info("Property '{}' updated from '{}' to '{}'", 
-                                propertyName, currentValue, newValue);
+                        logUpdate(propertyName, currentValue, newValue);
                     }
                 }
             }
@@ -146,8 +157,7 @@ public class NodePropertyStringReplacer {
                         node.setProperty(propertyName, newValue);
                         node.getSession().save();
                         
-                        log.info("Property '{}' updated (case-insensitive) from '{}' to '{}'", 
-                                propertyName, currentValue, newValue);
+                        logUpdate(propertyName, currentValue, newValue);
                     }
                 }
             }
@@ -156,6 +166,81 @@ public class NodePropertyStringReplacer {
         }
     }
     
+    /**
+     * Method 5: Bulk replacement across a whole subtree, saving every saveInterval changed nodes
+     */
+    public ReplacementProgress replaceStringInSubtree(Node rootNode, String[] propertyNames,
+                                                    String searchString, String replaceString,
+                                                    int saveInterval) {
+        BulkStringReplacer replacer = new BulkStringReplacer(
+                Collections.singletonList(new ReplacementRule(propertyNames, searchString, replaceString)),
+                saveInterval);
+        replacer.setValueLogSampleRate(valueLogSampleRate);
+        return replacer.replaceInSubtree(rootNode);
+    }
+    
+    /**
+     * Method 6: Apply a whole dictionary of replacements in one pass per property
+     */
+    public void replaceStringsWithRuleSet(Node node, String[] propertyNames, ReplacementRuleSet ruleSet) {
+        try {
+            boolean hasChanges = false;
+            
+            for (String propertyName : propertyNames) {
+                if (ruleSet.appliesTo(propertyName) && node.hasProperty(propertyName)) {
+                    Property property = node.getProperty(propertyName);
+                    String currentValue = property.getString();
+                    
+                    if (currentValue != null) {
+                        String newValue = ruleSet.apply(currentValue);
+                        if (!currentValue.equals(newValue)) {
+                            node.setProperty(propertyName, newValue);
+                            hasChanges = true;
+                            
+                            logUpdate(propertyName, currentValue, newValue);
+                        }
+                    }
+                }
+            }
+            
+            if (hasChanges) {
+                node.getSession().save();
+                log.info("Node saved with updated properties");
+            }
+            
+        } catch (RepositoryException e) {
+            log.error("Error updating node properties with rule set", e);
+        }
+    }
+    
+    /**
+     * Method 7: Dry run over a subtree, writing a CSV report of what would change instead of saving
+     */
+    public ReplacementProgress previewReplacementInSubtree(Node rootNode, String[] propertyNames,
+                                                         String searchString, String replaceString,
+                                                         Writer reportWriter) {
+        BulkStringReplacer replacer = new BulkStringReplacer(
+                Collections.singletonList(new ReplacementRule(propertyNames, searchString, replaceString)),
+                1);
+        replacer.setDryRun(true);
+        replacer.setValueLogSampleRate(valueLogSampleRate);
+        try (ReplacementReport report = ReplacementReport.csv(reportWriter)) {
+            replacer.setReport(report);
+            return replacer.replaceInSubtree(rootNode);
+        } catch (IOException e) {
+            log.error("Error writing replacement report", e);
+            return replacer.getProgress();
+        }
+    }
+    
+    private void logUpdate(String propertyName, String currentValue, String newValue) {
+        if (valueLogSampleRate > 0 && ThreadLocalRandom.current().nextDouble() < valueLogSampleRate) {
+            log.info("Property '{}' updated from '{}' to '{}'", propertyName, currentValue, newValue);
+        } else {
+            log.info("Property '{}' updated", propertyName);
+        }
+    }
+    
     /**
      * Example usage in a service or servlet
      */
@@ -177,6 +262,18 @@ public class NodePropertyStringReplacer {
             String[] properties = {"jcr:title", "jcr:description", "customProperty"};
             replaceStringInMultipleProperties(node, properties, "oldValue", "newValue");
             
+            // Example 4: Whole subtree, saving every 500 changed nodes
+            Node siteRoot = session.getNode("/content/mysite");
+            ReplacementProgress progress = replaceStringInSubtree(siteRoot, properties, "oldValue", "newValue", 500);
+            log.info("Subtree replacement done: {}", progress);
+            
+            // Example 5: Many replacements compiled once, one scan per property
+            ReplacementRuleSet rebrand = new ReplacementRuleSet.Builder()
+                    .add("OldBrand", "NewBrand")
+                    .addIgnoreCase("old-brand.com", "new-brand.com")
+                    .build();
+            replaceStringsWithRuleSet(node, properties, rebrand);
+            
         } catch (RepositoryException e) {
             log.error("Error in example usage", e);
         }
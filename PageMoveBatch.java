@@ -0,0 +1,242 @@
+package com.yourcompany.core.servlets;
+
+import com.day.cq.wcm.api.Page;
+import com.day.cq.wcm.api.PageManager;
+import com.day.cq.wcm.api.WCMException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.jcr.RepositoryException;
+import javax.jcr.Session;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.function.Consumer;
+
+/**
+ * Applies page moves to a session and saves them every {@code batchSize} moves instead of once
+ * per move.
+ *
+ * A move is reported as successful only once its batch is saved. If saving a batch fails, the
+ * session is refreshed and the moves of that batch are replayed one move per save, so a bad row
+ * fails on its own and the other rows of the batch still go through. Not thread-safe; call
+ * {@link #flush()} after the last move.
+ *
+ * Moves planned by {@link PageMovePlanner} are already validated and skip the page lookups.
+ * A planned move whose source is gone and whose destination exists counts as done: that is how a
+ * move looks when it is replayed after its batch was saved but its checkpoint was not.
+ * A {@link Checkpoint} is committed right after each save of the moves it describes.
+ */
+final class PageMoveBatch {
+
+    private static final Logger LOG = LoggerFactory.getLogger(PageMoveBatch.class);
+
+    private final PageManager pageManager;
+    private final Session session;
+    private final int batchSize;
+    private final boolean validate;
+    private final Consumer<String> results;
+
+    private final List<Entry> pending = new ArrayList<>();
+    private Checkpoint checkpoint;
+    private long moved;
+    private long failed;
+    private long saves;
+
+    PageMoveBatch(PageManager pageManager, Session session, int batchSize, boolean validate,
+                  Consumer<String> results) {
+        this.pageManager = pageManager;
+        this.session = session;
+        this.batchSize = Math.max(1, batchSize);
+        this.validate = validate;
+        this.results = results;
+    }
+
+    void setCheckpoint(Checkpoint checkpoint) {
+        this.checkpoint = checkpoint;
+    }
+
+    /**
+     * Validates and applies a move, flushing once {@code batchSize} moves are pending. A move that
+     * fails validation is reported right away.
+     */
+    void add(PageMoveOperation operation) {
+        try {
+            move(operation);
+            pending.add(new Entry(operation, null));
+        } catch (WCMException | RepositoryException | RuntimeException e) {
+            pending.add(new Entry(operation, reportFailure(operation, e)));
+        }
+        if (pending.size() >= batchSize) {
+            flush();
+        }
+    }
+
+    /**
+     * Saves all pending moves.
+     */
+    void flush() {
+        if (pending.isEmpty()) {
+            return;
+        }
+        List<Entry> batch = new ArrayList<>(pending);
+        pending.clear();
+        try {
+            List<String> succeeded = new ArrayList<>();
+            List<String> failures = new ArrayList<>();
+            for (Entry entry : batch) {
+                if (entry.failure == null) {
+                    succeeded.add(successMessage(entry.operation));
+                } else {
+                    failures.add(entry.failure);
+                }
+            }
+            session.save();
+            saves++;
+            record(batch.size(), succeeded, failures);
+            for (String successMsg : succeeded) {
+                reportSuccess(successMsg);
+            }
+            return;
+        } catch (RepositoryException e) {
+            LOG.warn("Saving a batch of {} page moves failed, retrying them one by one", batch.size(), e);
+            discardChanges();
+        }
+
+        int recorded = 0;
+        List<String> failures = new ArrayList<>();
+        for (int i = 0; i < batch.size(); i++) {
+            Entry entry = batch.get(i);
+            if (entry.failure != null) {
+                failures.add(entry.failure);
+                continue;
+            }
+            try {
+                move(entry.operation);
+                String successMsg = successMessage(entry.operation);
+                session.save();
+                saves++;
+                record(i + 1 - recorded, Collections.singletonList(successMsg), failures);
+                recorded = i + 1;
+                failures.clear();
+                reportSuccess(successMsg);
+            } catch (WCMException | RepositoryException | RuntimeException e) {
+                discardChanges();
+                failures.add(reportFailure(entry.operation, e));
+            }
+        }
+        if (recorded < batch.size()) {
+            record(batch.size() - recorded, Collections.emptyList(), failures);
+        }
+    }
+
+    long getMoved() {
+        return moved;
+    }
+
+    long getFailed() {
+        return failed;
+    }
+
+    long getSaves() {
+        return saves;
+    }
+
+    private void move(PageMoveOperation operation) throws WCMException, RepositoryException {
+        String sourcePath = operation.getSourcePath();
+        String destinationPath = operation.getDestinationPath();
+        if (!validate) {
+            if (!session.nodeExists(sourcePath) && session.nodeExists(destinationPath)) {
+                LOG.info("Page {} was already moved to {}", sourcePath, destinationPath);
+                return;
+            }
+            session.move(sourcePath, destinationPath);
+            return;
+        }
+
+        // Get the page to move
+        Page sourcePage = pageManager.getPage(sourcePath);
+        if (sourcePage == null) {
+            throw new WCMException("Source page not found: " + sourcePath);
+        }
+
+        // Validate destination path
+        String destinationParent = destinationPath.substring(0, destinationPath.lastIndexOf('/'));
+        String newPageName = destinationPath.substring(destinationPath.lastIndexOf('/') + 1);
+
+        Page destinationParentPage = pageManager.getPage(destinationParent);
+        if (destinationParentPage == null) {
+            throw new WCMException("Destination parent page not found: " + destinationParent);
+        }
+
+        // Check if destination already exists
+        Page existingPage = pageManager.getPage(destinationPath);
+        if (existingPage != null) {
+            throw new WCMException("Destination page already exists: " + destinationPath);
+        }
+
+        // Move the node, saved with its batch
+        session.move(sourcePage.getPath(), destinationParentPage.getPath() + "/" + newPageName);
+    }
+
+    private void discardChanges() {
+        try {
+            session.refresh(false);
+        } catch (RepositoryException e) {
+            LOG.error("Could not discard pending page moves", e);
+        }
+    }
+
+    /**
+     * Commits the checkpoint. A failure is only logged: the moves are saved already, and moves
+     * replayed from an older checkpoint count as done.
+     */
+    private void record(int operations, List<String> succeeded, List<String> failures) {
+        if (checkpoint == null) {
+            return;
+        }
+        try {
+            checkpoint.record(operations, succeeded, failures);
+        } catch (RepositoryException e) {
+            LOG.error("Could not record the outcome of {} page moves", operations, e);
+        }
+    }
+
+    private static String successMessage(PageMoveOperation operation) {
+        return String.format("Successfully moved page from %s to %s",
+                operation.getSourcePath(), operation.getDestinationPath());
+    }
+
+    private void reportSuccess(String successMsg) {
+        moved++;
+        LOG.info(successMsg);
+        results.accept(successMsg);
+    }
+
+    private String reportFailure(PageMoveOperation operation, Exception e) {
+        failed++;
+        String errorMsg = String.format("Failed to move page from %s to %s: %s",
+                operation.getSourcePath(), operation.getDestinationPath(), e.getMessage());
+        LOG.error(errorMsg, e);
+        results.accept(errorMsg);
+        return errorMsg;
+    }
+
+    /**
+     * Records and commits the outcome of the next {@code operations} moves, once they are saved.
+     */
+    interface Checkpoint {
+        void record(int operations, List<String> succeeded, List<String> failed) throws RepositoryException;
+    }
+
+    private static final class Entry {
+        private final PageMoveOperation operation;
+        // set if the move failed before the save
+        private final String failure;
+
+        Entry(PageMoveOperation operation, String failure) {
+            this.operation = operation;
+            this.failure = failure;
+        }
+    }
+}
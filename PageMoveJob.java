@@ -0,0 +1,352 @@
+package com.yourcompany.core.servlets;
+
+import com.day.cq.commons.jcr.JcrUtil;
+import com.fasterxml.jackson.databind.MappingIterator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import javax.jcr.Binary;
+import javax.jcr.Node;
+import javax.jcr.NodeIterator;
+import javax.jcr.RepositoryException;
+import javax.jcr.Session;
+import javax.jcr.Value;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.function.BooleanSupplier;
+
+/**
+ * A bulk page move job persisted below {@value #JOBS_ROOT}, so it survives a restart.
+ *
+ * The job node keeps the uploaded sheet until the job is planned, then the planned operations as
+ * an NDJSON binary, the checkpoint (number of planned operations whose outcome is committed) and
+ * the result messages, one child node per committed batch. Checkpoint and results are saved right
+ * after the moves they describe, which are made in the owner's own session; after a restart the
+ * job continues after the last checkpoint, and {@link PageMoveBatch} treats moves that were saved
+ * without their checkpoint as done.
+ */
+final class PageMoveJob implements PageMoveBatch.Checkpoint {
+
+    static final String JOBS_ROOT = "/var/pagemove/jobs";
+
+    enum State { QUEUED, RUNNING, SUCCEEDED, FAILED }
+
+    private static final ObjectMapper objectMapper = new ObjectMapper();
+
+    private static final String STATE = "state";
+    private static final String USER_ID = "userId";
+    private static final String ERROR = "error";
+    private static final String FILE_NAME = "fileName";
+    private static final String BATCH_SIZE = "batchSize";
+    private static final String CREATED = "created";
+    private static final String FINISHED = "finished";
+    private static final String SHEET = "sheet";
+    private static final String OPERATIONS = "operations";
+    private static final String TOTAL = "total";
+    private static final String PROCESSED = "processed";
+    private static final String MOVED = "moved";
+    private static final String FAILED = "failed";
+    private static final String RESULT_COUNT = "resultCount";
+    private static final String RESULTS = "results";
+    private static final String LINES = "lines";
+
+    private final Session session;
+    private final Node node;
+
+    private PageMoveJob(Session session, Node node) {
+        this.session = session;
+        this.node = node;
+    }
+
+    /**
+     * Creates and saves a queued job for an uploaded sheet, owned by {@code userId}.
+     */
+    static PageMoveJob create(Session session, InputStream sheet, String fileName, int batchSize, String userId)
+            throws RepositoryException {
+        Node jobs = JcrUtil.createPath(JOBS_ROOT, "sling:Folder", "sling:Folder", session, false);
+        Node node = jobs.addNode(UUID.randomUUID().toString(), "nt:unstructured");
+        node.setProperty(STATE, State.QUEUED.name());
+        node.setProperty(USER_ID, userId);
+        node.setProperty(FILE_NAME, fileName);
+        node.setProperty(BATCH_SIZE, batchSize);
+        node.setProperty(CREATED, Calendar.getInstance());
+        Binary binary = session.getValueFactory().createBinary(sheet);
+        try {
+            node.setProperty(SHEET, binary);
+        } finally {
+            binary.dispose();
+        }
+        node.setProperty(RESULT_COUNT, 0L);
+        node.addNode(RESULTS, "nt:unstructured");
+        session.save();
+        return new PageMoveJob(session, node);
+    }
+
+    /**
+     * @return the job, or {@code null} if there is no job with this id
+     */
+    static PageMoveJob load(Session session, String jobId) throws RepositoryException {
+        if (jobId == null || jobId.isEmpty() || jobId.contains("/")) {
+            return null;
+        }
+        String path = JOBS_ROOT + "/" + jobId;
+        return session.nodeExists(path) ? new PageMoveJob(session, session.getNode(path)) : null;
+    }
+
+    /**
+     * Ids of all jobs that were queued or running, e.g. when the instance went down.
+     */
+    static List<String> findUnfinished(Session session) throws RepositoryException {
+        List<String> jobIds = new ArrayList<>();
+        if (!session.nodeExists(JOBS_ROOT)) {
+            return jobIds;
+        }
+        NodeIterator jobs = session.getNode(JOBS_ROOT).getNodes();
+        while (jobs.hasNext()) {
+            Node job = jobs.nextNode();
+            String state = job.hasProperty(STATE) ? job.getProperty(STATE).getString() : null;
+            if (State.QUEUED.name().equals(state) || State.RUNNING.name().equals(state)) {
+                jobIds.add(job.getName());
+            }
+        }
+        return jobIds;
+    }
+
+    /**
+     * Removes jobs that finished before {@code cutoff}.
+     */
+    static int removeFinished(Session session, Calendar cutoff) throws RepositoryException {
+        int removed = 0;
+        if (!session.nodeExists(JOBS_ROOT)) {
+            return removed;
+        }
+        NodeIterator jobs = session.getNode(JOBS_ROOT).getNodes();
+        while (jobs.hasNext()) {
+            Node job = jobs.nextNode();
+            if (job.hasProperty(FINISHED) && job.getProperty(FINISHED).getDate().before(cutoff)) {
+                job.remove();
+                removed++;
+            }
+        }
+        session.save();
+        return removed;
+    }
+
+    String getId() throws RepositoryException {
+        return node.getName();
+    }
+
+    /**
+     * The user who submitted the job, or null for a job stored without an owner.
+     */
+    String getUserId() throws RepositoryException {
+        return node.hasProperty(USER_ID) ? node.getProperty(USER_ID).getString() : null;
+    }
+
+    State getState() throws RepositoryException {
+        return State.valueOf(node.getProperty(STATE).getString());
+    }
+
+    String getFileName() throws RepositoryException {
+        return node.getProperty(FILE_NAME).getString();
+    }
+
+    int getBatchSize() throws RepositoryException {
+        return (int) node.getProperty(BATCH_SIZE).getLong();
+    }
+
+    long getProcessed() throws RepositoryException {
+        return getLong(PROCESSED);
+    }
+
+    long getResultCount() throws RepositoryException {
+        return getLong(RESULT_COUNT);
+    }
+
+    boolean isPlanned() throws RepositoryException {
+        return node.hasProperty(OPERATIONS);
+    }
+
+    void start() throws RepositoryException {
+        node.setProperty(STATE, State.RUNNING.name());
+        session.save();
+    }
+
+    void finish(String error) throws RepositoryException {
+        node.setProperty(STATE, error == null ? State.SUCCEEDED.name() : State.FAILED.name());
+        if (error != null) {
+            node.setProperty(ERROR, error);
+        }
+        node.setProperty(FINISHED, Calendar.getInstance());
+        session.save();
+    }
+
+    InputStream openSheet() throws RepositoryException {
+        return node.getProperty(SHEET).getBinary().getStream();
+    }
+
+    /**
+     * Stores the planned operations and the rejected rows as the first results, and drops the
+     * uploaded sheet. Saves the session.
+     */
+    void storePlan(PageMovePlanner.Plan plan) throws RepositoryException, IOException {
+        // spool to a file, the plan can be too large to hold twice in memory
+        File file = Files.createTempFile("page-move-plan-", ".ndjson").toFile();
+        try {
+            try (OutputStream out = Files.newOutputStream(file.toPath())) {
+                for (PageMoveOperation operation : plan.getOperations()) {
+                    Map<String, String> line = new LinkedHashMap<>();
+                    line.put("source", operation.getSourcePath());
+                    line.put("destination", operation.getDestinationPath());
+                    out.write(objectMapper.writeValueAsBytes(line));
+                    out.write('\n');
+                }
+            }
+            try (InputStream in = Files.newInputStream(file.toPath())) {
+                Binary binary = session.getValueFactory().createBinary(in);
+                try {
+                    node.setProperty(OPERATIONS, binary);
+                } finally {
+                    binary.dispose();
+                }
+            }
+        } finally {
+            Files.deleteIfExists(file.toPath());
+        }
+        node.setProperty(TOTAL, (long) plan.getOperations().size());
+        node.setProperty(PROCESSED, 0L);
+        node.setProperty(FAILED, (long) plan.getRejections().size());
+        appendResults(plan.getRejections());
+        if (node.hasProperty(SHEET)) {
+            node.getProperty(SHEET).remove();
+        }
+        session.save();
+    }
+
+    /**
+     * Passes the planned operations from the checkpoint on to {@code batch}, stopping early once
+     * {@code stopRequested} is true. Does not flush the batch.
+     */
+    void forEachRemaining(PageMoveBatch batch, BooleanSupplier stopRequested) throws RepositoryException, IOException {
+        long skip = getProcessed();
+        try (InputStream in = node.getProperty(OPERATIONS).getBinary().getStream();
+             MappingIterator<Map<String, String>> lines = objectMapper.readerFor(Map.class).readValues(in)) {
+            long index = 0;
+            while (lines.hasNext() && !stopRequested.getAsBoolean()) {
+                Map<String, String> line = lines.next();
+                if (index++ >= skip) {
+                    batch.add(new PageMoveOperation(line.get("source"), line.get("destination")));
+                }
+            }
+        }
+    }
+
+    @Override
+    public void record(int operations, List<String> succeeded, List<String> failed) throws RepositoryException {
+        node.setProperty(PROCESSED, getProcessed() + operations);
+        node.setProperty(MOVED, getLong(MOVED) + succeeded.size());
+        node.setProperty(FAILED, getLong(FAILED) + failed.size());
+        List<String> lines = new ArrayList<>(succeeded);
+        lines.addAll(failed);
+        appendResults(lines);
+        try {
+            session.save();
+        } catch (RepositoryException e) {
+            session.refresh(false);
+            throw e;
+        }
+    }
+
+    /**
+     * Result messages from index {@code from} on, in the order they were committed.
+     *
+     * Each batch node is named after its first result index, so a reader that continues where its
+     * last read ended finds the next batch by name and only reads new results.
+     */
+    List<String> readResults(long from) throws RepositoryException {
+        List<String> results = new ArrayList<>();
+        Node resultsNode = node.getNode(RESULTS);
+        Node batch = findBatch(resultsNode, from);
+        long index = from;
+        while (batch != null) {
+            long first = Long.parseLong(batch.getName());
+            Value[] lines = batch.getProperty(LINES).getValues();
+            for (int i = (int) (index - first); i < lines.length; i++) {
+                results.add(lines[i].getString());
+            }
+            index = first + lines.length;
+            String next = batchName(index);
+            batch = resultsNode.hasNode(next) ? resultsNode.getNode(next) : null;
+        }
+        return results;
+    }
+
+    /**
+     * The batch holding result {@code index}, or null if there is no such result yet.
+     */
+    private Node findBatch(Node resultsNode, long index) throws RepositoryException {
+        String name = batchName(index);
+        if (resultsNode.hasNode(name)) {
+            return resultsNode.getNode(name);
+        }
+        if (index >= getResultCount()) {
+            return null;
+        }
+        // only a reader starting in the middle of a batch gets here
+        NodeIterator batches = resultsNode.getNodes();
+        while (batches.hasNext()) {
+            Node batch = batches.nextNode();
+            long first = Long.parseLong(batch.getName());
+            if (first <= index && index < first + batch.getProperty(LINES).getValues().length) {
+                return batch;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Job state and counters, as reported by the progress endpoint.
+     */
+    Map<String, Object> toMap() throws RepositoryException {
+        Map<String, Object> map = new LinkedHashMap<>();
+        map.put("jobId", getId());
+        map.put("state", getState().name());
+        map.put("fileName", getFileName());
+        map.put("total", node.hasProperty(TOTAL) ? getLong(TOTAL) : null);
+        map.put("processed", getProcessed());
+        map.put("moved", getLong(MOVED));
+        map.put("failed", getLong(FAILED));
+        map.put("results", getResultCount());
+        if (node.hasProperty(ERROR)) {
+            map.put("error", node.getProperty(ERROR).getString());
+        }
+        return map;
+    }
+
+    private void appendResults(List<String> lines) throws RepositoryException {
+        if (lines.isEmpty()) {
+            return;
+        }
+        long resultCount = getResultCount();
+        // zero padded first result index keeps the batches in order and lets readers look them up
+        Node batch = node.getNode(RESULTS).addNode(batchName(resultCount), "nt:unstructured");
+        batch.setProperty(LINES, lines.toArray(new String[0]));
+        node.setProperty(RESULT_COUNT, resultCount + lines.size());
+    }
+
+    private static String batchName(long firstIndex) {
+        return String.format("%012d", firstIndex);
+    }
+
+    private long getLong(String propertyName) throws RepositoryException {
+        return node.hasProperty(propertyName) ? node.getProperty(propertyName).getLong() : 0;
+    }
+}
@@ -0,0 +1,22 @@
+package com.yourcompany.core.servlets;
+
+/**
+ * One row of a page move sheet: the page to move and its new path.
+ */
+class PageMoveOperation {
+    private final String sourcePath;
+    private final String destinationPath;
+
+    public PageMoveOperation(String sourcePath, String destinationPath) {
+        this.sourcePath = sourcePath;
+        this.destinationPath = destinationPath;
+    }
+
+    public String getSourcePath() {
+        return sourcePath;
+    }
+
+    public String getDestinationPath() {
+        return destinationPath;
+    }
+}
@@ -0,0 +1,101 @@
+package com.yourcompany.core.servlets;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.UncheckedIOException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.Consumer;
+
+/**
+ * Parses a page move sheet on a separate thread and hands the rows to the calling thread as
+ * they arrive, so moves start while the rest of the sheet is still being read.
+ *
+ * The two threads are connected by a bounded queue: once it is full the parser blocks until
+ * the mover has caught up. The mover runs in the calling thread, the only one that touches the
+ * request session.
+ */
+final class PageMovePipeline {
+
+    private static final Logger LOG = LoggerFactory.getLogger(PageMovePipeline.class);
+
+    // compared by identity, can't clash with a parsed row
+    private static final PageMoveOperation END_OF_ROWS = new PageMoveOperation(null, null);
+
+    private final int queueCapacity;
+
+    PageMovePipeline(int queueCapacity) {
+        this.queueCapacity = Math.max(1, queueCapacity);
+    }
+
+    /**
+     * Reads {@code inputStream} with {@link PageMoveSheetReader} and passes every operation to
+     * {@code mover}, returning once all parsed rows have been moved.
+     *
+     * @return the number of operations passed to {@code mover}
+     * @throws IOException if the sheet could not be read; rows parsed before the error have been moved
+     */
+    int run(InputStream inputStream, String fileName, Consumer<PageMoveOperation> mover) throws IOException {
+        BlockingQueue<PageMoveOperation> queue = new ArrayBlockingQueue<>(queueCapacity);
+        ExecutorService executor = Executors.newSingleThreadExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "page-move-sheet-parser");
+            thread.setDaemon(true);
+            return thread;
+        });
+        long start = System.currentTimeMillis();
+        int moved = 0;
+        try {
+            Future<Integer> parsed = executor.submit(() -> {
+                try {
+                    return PageMoveSheetReader.read(inputStream, fileName, operation -> enqueue(queue, operation));
+                } catch (UncheckedIOException e) {
+                    throw e.getCause();
+                } finally {
+                    try {
+                        queue.put(END_OF_ROWS);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                }
+            });
+
+            PageMoveOperation operation;
+            while ((operation = queue.take()) != END_OF_ROWS) {
+                mover.accept(operation);
+                moved++;
+            }
+            int rows = parsed.get();
+            LOG.info("Moved {} parsed rows of {} in {} ms", rows, fileName, System.currentTimeMillis() - start);
+            return moved;
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            }
+            throw new IOException("Could not read " + fileName + ": " + cause.getMessage(), cause);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted after moving " + moved + " rows of " + fileName);
+        } finally {
+            // stops a parser still blocked on a full queue if the mover gave up
+            executor.shutdownNow();
+        }
+    }
+
+    private static void enqueue(BlockingQueue<PageMoveOperation> queue, PageMoveOperation operation) {
+        try {
+            queue.put(operation);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new UncheckedIOException(new InterruptedIOException("Sheet parsing was cancelled"));
+        }
+    }
+}
@@ -0,0 +1,323 @@
+package com.yourcompany.core.servlets;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.jcr.RepositoryException;
+import javax.jcr.Session;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.TreeSet;
+
+/**
+ * Orders and validates all rows of a page move sheet before anything is moved.
+ *
+ * Every distinct source and destination path, and each of their ancestors, is looked up once
+ * before planning instead of three {@code PageManager.getPage} calls per row. The lookups read
+ * nodes directly: a query would depend on the async index being current and on Oak's read limit.
+ * Moves are then ordered by their dependencies, falling back to sheet order:
+ * <ul>
+ *     <li>a move that creates a destination parent runs before the moves into it,</li>
+ *     <li>a move that vacates a path runs before the move onto it,</li>
+ *     <li>a move of a page created by another move (A to B, then B to C) runs after it,</li>
+ *     <li>a page is moved before an ancestor of it is.</li>
+ * </ul>
+ * Each move is validated against the tree as it will be when the move runs, and optionally
+ * against the permissions of the user the moves are made for. Invalid rows,
+ * duplicate sources or destinations, and dependency cycles are rejected up front with the
+ * reason. Rows that depend on a rejected row are rejected too.
+ */
+final class PageMovePlanner {
+
+    private static final Logger LOG = LoggerFactory.getLogger(PageMovePlanner.class);
+
+    private final Session session;
+    private final Session permissionSession;
+    private final List<PageMoveOperation> operations;
+    private final int size;
+    private final String[] sources;
+    private final String[] destinations;
+    private final String[] rejections;
+    private final Map<String, Integer> bySource = new HashMap<>();
+    private final Map<String, Integer> byDestination = new HashMap<>();
+    private final List<List<Integer>> successors;
+    private final int[] predecessorCounts;
+    // position in the execution order of each accepted move, -1 until accepted
+    private final int[] sequence;
+    // whether a page existed at a path before any move, filled by lookUpPages and on demand
+    private final Map<String, Boolean> existingPages = new HashMap<>();
+    private final Set<String> missingNodes = new HashSet<>();
+
+    private PageMovePlanner(Session session, Session permissionSession, List<PageMoveOperation> operations) {
+        this.session = session;
+        this.permissionSession = permissionSession;
+        this.operations = operations;
+        this.size = operations.size();
+        this.sources = new String[size];
+        this.destinations = new String[size];
+        this.rejections = new String[size];
+        this.successors = new ArrayList<>(size);
+        this.predecessorCounts = new int[size];
+        this.sequence = new int[size];
+        Arrays.fill(sequence, -1);
+        for (int i = 0; i < size; i++) {
+            sources[i] = normalize(operations.get(i).getSourcePath());
+            destinations[i] = normalize(operations.get(i).getDestinationPath());
+            successors.add(new ArrayList<>(0));
+        }
+    }
+
+    /**
+     * Plans {@code operations}, given in sheet order.
+     */
+    static Plan plan(Session session, List<PageMoveOperation> operations) throws RepositoryException {
+        return plan(session, operations, null);
+    }
+
+    /**
+     * Plans {@code operations} like {@link #plan(Session, List)}, and also rejects moves the user of
+     * {@code permissionSession} isn't allowed to make, for moves that run with another session.
+     */
+    static Plan plan(Session session, List<PageMoveOperation> operations, Session permissionSession)
+            throws RepositoryException {
+        long start = System.currentTimeMillis();
+        PageMovePlanner planner = new PageMovePlanner(session, permissionSession, operations);
+        planner.index();
+        planner.lookUpPages();
+        planner.link();
+        Plan plan = planner.order();
+        LOG.info("Planned {} of {} page moves ({} rejected) with {} page lookups in {} ms",
+                plan.getOperations().size(), operations.size(), plan.getRejections().size(),
+                planner.existingPages.size(), System.currentTimeMillis() - start);
+        return plan;
+    }
+
+    private void index() {
+        for (int i = 0; i < size; i++) {
+            String source = sources[i];
+            String destination = destinations[i];
+            if (!source.startsWith("/") || !destination.startsWith("/") || destination.lastIndexOf('/') <= 0) {
+                rejections[i] = "Invalid source or destination path";
+            } else if (isSameOrDescendant(destination, source)) {
+                rejections[i] = "Destination is the source page or below it";
+            } else if (bySource.containsKey(source)) {
+                rejections[i] = "Source page is already moved by row " + row(bySource.get(source));
+            } else if (byDestination.containsKey(destination)) {
+                rejections[i] = "Destination is already used by row " + row(byDestination.get(destination));
+            } else {
+                bySource.put(source, i);
+                byDestination.put(destination, i);
+            }
+        }
+    }
+
+    /**
+     * Looks up the distinct paths of all valid rows and their ancestors, parents before children
+     * so nothing below a missing node is read.
+     */
+    private void lookUpPages() throws RepositoryException {
+        Set<String> paths = new TreeSet<>();
+        for (int i = 0; i < size; i++) {
+            if (rejections[i] == null) {
+                addWithAncestors(sources[i], paths);
+                addWithAncestors(destinations[i], paths);
+            }
+        }
+        for (String path : paths) {
+            isExistingPage(path);
+        }
+    }
+
+    private boolean isExistingPage(String path) throws RepositoryException {
+        Boolean page = existingPages.get(path);
+        if (page == null) {
+            String parent = parent(path);
+            if (parent != null && missingNodes.contains(parent) || !session.nodeExists(path)) {
+                missingNodes.add(path);
+                page = false;
+            } else {
+                page = session.getNode(path).isNodeType("cq:Page");
+            }
+            existingPages.put(path, page);
+        }
+        return page;
+    }
+
+    private static void addWithAncestors(String path, Set<String> paths) {
+        for (String ancestor = path; ancestor != null && paths.add(ancestor); ancestor = parent(ancestor)) {
+            // an ancestor already in the set brought its own ancestors along
+        }
+    }
+
+    private void link() throws RepositoryException {
+        for (int i = 0; i < size; i++) {
+            if (rejections[i] != null) {
+                continue;
+            }
+            // destination parent created by another move
+            for (String path = parent(destinations[i]); path != null; path = parent(path)) {
+                if (!isExistingPage(path)) {
+                    addEdge(byDestination.get(path), i);
+                }
+            }
+            // destination vacated by another move
+            if (isExistingPage(destinations[i])) {
+                addEdge(bySource.get(destinations[i]), i);
+            }
+            // source created by another move, e.g. A to B then B to C
+            for (String path = sources[i]; path != null; path = parent(path)) {
+                if (!isExistingPage(path)) {
+                    addEdge(byDestination.get(path), i);
+                }
+            }
+            // move pages before their ancestors, while they are still at the path given in the sheet
+            for (String path = parent(sources[i]); path != null; path = parent(path)) {
+                Integer ancestorMove = bySource.get(path);
+                if (ancestorMove != null) {
+                    addEdge(i, ancestorMove);
+                }
+            }
+        }
+    }
+
+    private void addEdge(Integer from, int to) {
+        if (from != null && from != to && rejections[from] == null) {
+            successors.get(from).add(to);
+            predecessorCounts[to]++;
+        }
+    }
+
+    /**
+     * Topological order with sheet order between independent moves; every move is validated
+     * when it is reached, against the tree with all moves accepted so far applied.
+     */
+    private Plan order() throws RepositoryException {
+        PriorityQueue<Integer> ready = new PriorityQueue<>();
+        for (int i = 0; i < size; i++) {
+            if (rejections[i] == null && predecessorCounts[i] == 0) {
+                ready.add(i);
+            }
+        }
+        List<PageMoveOperation> ordered = new ArrayList<>();
+        while (!ready.isEmpty()) {
+            int i = ready.poll();
+            String rejection = validate(i);
+            if (rejection == null) {
+                sequence[i] = ordered.size();
+                ordered.add(new PageMoveOperation(sources[i], destinations[i]));
+            } else {
+                rejections[i] = rejection;
+            }
+            for (int successor : successors.get(i)) {
+                if (--predecessorCounts[successor] == 0) {
+                    ready.add(successor);
+                }
+            }
+        }
+
+        List<String> rejected = new ArrayList<>();
+        for (int i = 0; i < size; i++) {
+            if (rejections[i] == null && sequence[i] < 0) {
+                rejections[i] = "Circular dependency with other moves";
+            }
+            if (rejections[i] != null) {
+                PageMoveOperation operation = operations.get(i);
+                rejected.add(String.format("Failed to move page from %s to %s: %s (row %d)",
+                        operation.getSourcePath(), operation.getDestinationPath(), rejections[i], row(i)));
+            }
+        }
+        return new Plan(ordered, rejected);
+    }
+
+    private String validate(int i) throws RepositoryException {
+        int now = Integer.MAX_VALUE;
+        if (!exists(sources[i], now)) {
+            return "Source page not found: " + sources[i];
+        }
+        String destinationParent = parent(destinations[i]);
+        if (!exists(destinationParent, now)) {
+            return "Destination parent page not found: " + destinationParent;
+        }
+        if (exists(destinations[i], now)) {
+            return "Destination page already exists: " + destinations[i];
+        }
+        if (permissionSession != null && !(permissionSession.hasPermission(sources[i], Session.ACTION_REMOVE)
+                && permissionSession.hasPermission(destinations[i], Session.ACTION_ADD_NODE))) {
+            return "Not allowed to move " + sources[i] + " to " + destinations[i];
+        }
+        return null;
+    }
+
+    /**
+     * Whether a page exists at {@code path} once all accepted moves with a sequence below
+     * {@code before} have run. The latest move into or out of the path or one of its ancestors
+     * decides; a path moved in is looked up at its location before that move.
+     */
+    private boolean exists(String path, int before) throws RepositoryException {
+        int latest = -1;
+        boolean movedIn = false;
+        String latestPath = null;
+        for (String ancestor = path; ancestor != null; ancestor = parent(ancestor)) {
+            Integer in = byDestination.get(ancestor);
+            if (in != null && sequence[in] >= 0 && sequence[in] < before && sequence[in] > latest) {
+                latest = sequence[in];
+                movedIn = true;
+                latestPath = sources[in] + path.substring(ancestor.length());
+            }
+            Integer out = bySource.get(ancestor);
+            if (out != null && sequence[out] >= 0 && sequence[out] < before && sequence[out] > latest) {
+                latest = sequence[out];
+                movedIn = false;
+            }
+        }
+        if (latest < 0) {
+            return isExistingPage(path);
+        }
+        return movedIn && exists(latestPath, latest);
+    }
+
+    private static int row(int index) {
+        return index + 1;
+    }
+
+    private static String normalize(String path) {
+        return path.length() > 1 && path.endsWith("/") ? path.substring(0, path.length() - 1) : path;
+    }
+
+    private static String parent(String path) {
+        int slash = path.lastIndexOf('/');
+        return slash > 0 ? path.substring(0, slash) : slash == 0 && path.length() > 1 ? "/" : null;
+    }
+
+    private static boolean isSameOrDescendant(String path, String ancestorPath) {
+        return path.equals(ancestorPath) || path.startsWith(ancestorPath + "/");
+    }
+
+    /**
+     * Moves in execution order, plus a failure message per rejected row.
+     */
+    static final class Plan {
+        private final List<PageMoveOperation> operations;
+        private final List<String> rejections;
+
+        Plan(List<PageMoveOperation> operations, List<String> rejections) {
+            this.operations = Collections.unmodifiableList(operations);
+            this.rejections = Collections.unmodifiableList(rejections);
+        }
+
+        List<PageMoveOperation> getOperations() {
+            return operations;
+        }
+
+        List<String> getRejections() {
+            return rejections;
+        }
+    }
+}
@@ -3,43 +3,126 @@ package com.yourcompany.core.servlets;
 import org.apache.commons.fileupload.servlet.ServletFileUpload;
 import org.apache.commons.fileupload.disk.DiskFileItemFactory;
 import org.apache.commons.fileupload.FileItem;
-import org.apache.poi.ss.usermodel.*;
-import org.apache.poi.xssf.usermodel.XSSFWorkbook;
-import org.apache.poi.hssf.usermodel.HSSFWorkbook;
 import org.apache.sling.api.SlingHttpServletRequest;
 import org.apache.sling.api.SlingHttpServletResponse;
+import org.apache.sling.api.resource.LoginException;
+import org.apache.sling.api.resource.ResourceResolver;
+import org.apache.sling.api.resource.ResourceResolverFactory;
 import org.apache.sling.api.servlets.SlingAllMethodsServlet;
+import org.osgi.service.component.annotations.Activate;
 import org.osgi.service.component.annotations.Component;
+import org.osgi.service.component.annotations.Deactivate;
 import org.osgi.service.component.annotations.Reference;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import com.day.cq.wcm.api.Page;
 import com.day.cq.wcm.api.PageManager;
-import com.day.cq.wcm.api.WCMException;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
 
-import javax.jcr.Node;
 import javax.jcr.RepositoryException;
 import javax.jcr.Session;
 import javax.servlet.Servlet;
 import javax.servlet.ServletException;
+import javax.servlet.http.HttpServletResponse;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.PrintWriter;
+import java.io.UncheckedIOException;
 import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
 
+/**
+ * Moves pages listed in an uploaded sheet (see {@link PageMoveSheetReader}).
+ *
+ * By default the upload creates a persisted {@link PageMoveJob} that is planned and executed in
+ * the background and resumed after a restart; {@code /bin/movePages/progress?jobId=...&from=N}
+ * returns the results committed so far as NDJSON, and clients poll again with the returned
+ * {@code from} until the job is finished. With {@code async=false} the moves run within the
+ * request and the results are streamed into the JSON response.
+ *
+ * A background job records the submitting user and makes its moves through a service resolver
+ * impersonating that user, so it can only move what they could move themselves, also when it is
+ * resumed after their permissions changed. Planning already rejects moves they aren't allowed to
+ * make. The job's own bookkeeping below {@value PageMoveJob#JOBS_ROOT} uses the plain service
+ * session, and only the submitting user can read the job's progress.
+ */
 @Component(service = Servlet.class, property = {
     "sling.servlet.methods=POST",
+    "sling.servlet.methods=GET",
     "sling.servlet.paths=/bin/movePages",
+    "sling.servlet.paths=/bin/movePages/progress",
     "sling.servlet.extensions=json"
 })
 public class PageMoveServlet extends SlingAllMethodsServlet {
 
     private static final Logger LOG = LoggerFactory.getLogger(PageMoveServlet.class);
-    
+
+    private static final int DEFAULT_QUEUE_SIZE = 1000;
+
+    private static final int DEFAULT_BATCH_SIZE = 100;
+
+    private static final String PROGRESS_PATH = "/bin/movePages/progress";
+
+    private static final int FINISHED_JOB_RETENTION_DAYS = 7;
+
+    /** How long deactivation waits for a stopping job to commit its current batch. */
+    private static final long JOB_STOP_TIMEOUT_SECONDS = 60;
+
+    /**
+     * Its service user keeps the jobs below {@value PageMoveJob#JOBS_ROOT} and needs impersonation
+     * rights for the authors allowed to run bulk moves.
+     */
+    private static final String SUBSERVICE = "page-move";
+
+    private static final ObjectMapper objectMapper = new ObjectMapper();
+
+    /** Jobs running in this JVM, across component instances, e.g. one that outlived deactivation. */
+    private static final Set<String> RUNNING_JOBS = ConcurrentHashMap.newKeySet();
+
     @Reference
-    private PageManager pageManager;
+    private ResourceResolverFactory resolverFactory;
+
+    private ExecutorService executor;
+
+    // checked between moves; jobs are never interrupted while they write to the repository
+    private volatile boolean stopping;
+
+    @Activate
+    protected void activate() {
+        // one job at a time, concurrent bulk moves of the same tree would conflict
+        executor = Executors.newSingleThreadExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "page-move-jobs");
+            thread.setDaemon(true);
+            return thread;
+        });
+        executor.submit(this::resumeJobs);
+    }
+
+    @Deactivate
+    protected void deactivate() {
+        // a stopped job stays RUNNING and continues from its last checkpoint on activation;
+        // wait for it, so the next activation doesn't resume the job while it is still running here
+        stopping = true;
+        executor.shutdown();
+        try {
+            if (!executor.awaitTermination(JOB_STOP_TIMEOUT_SECONDS, TimeUnit.SECONDS)) {
+                LOG.warn("Page move job did not stop within {} s", JOB_STOP_TIMEOUT_SECONDS);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
 
     @Override
     protected void doPost(SlingHttpServletRequest request, SlingHttpServletResponse response)
@@ -52,7 +135,7 @@ public class PageMoveServlet extends SlingAllMethodsServlet {
         try {
             // Check if request contains multipart content
             if (!ServletFileUpload.isMultipartContent(request)) {
-                writeErrorResponse(out, "Request must contain multipart content with Excel file");
+                writeErrorResponse(out, "Request must contain multipart content with Excel or CSV file");
                 return;
             }
             
@@ -62,10 +145,24 @@ public class PageMoveServlet extends SlingAllMethodsServlet {
             List<FileItem> items = upload.parseRequest(request);
             
             FileItem excelFile = null;
+            boolean async = true;
+            boolean plan = true;
+            boolean pipelined = true;
+            int queueSize = DEFAULT_QUEUE_SIZE;
+            int batchSize = DEFAULT_BATCH_SIZE;
             for (FileItem item : items) {
                 if (!item.isFormField() && item.getFieldName().equals("excelFile")) {
                     excelFile = item;
-                    break;
+                } else if (item.isFormField() && item.getFieldName().equals("async")) {
+                    async = !"false".equalsIgnoreCase(item.getString());
+                } else if (item.isFormField() && item.getFieldName().equals("plan")) {
+                    plan = !"false".equalsIgnoreCase(item.getString());
+                } else if (item.isFormField() && item.getFieldName().equals("pipelined")) {
+                    pipelined = !"false".equalsIgnoreCase(item.getString());
+                } else if (item.isFormField() && item.getFieldName().equals("queueSize")) {
+                    queueSize = parseSize(item.getString(), "queueSize", DEFAULT_QUEUE_SIZE);
+                } else if (item.isFormField() && item.getFieldName().equals("batchSize")) {
+                    batchSize = parseSize(item.getString(), "batchSize", DEFAULT_BATCH_SIZE);
                 }
             }
             
@@ -74,214 +171,297 @@ public class PageMoveServlet extends SlingAllMethodsServlet {
                 return;
             }
             
-            // Process the Excel file
-            List<PageMoveOperation> moveOperations = parseExcelFile(excelFile.getInputStream(), 
-                                                                   excelFile.getName());
-            
-            if (moveOperations.isEmpty()) {
-                writeErrorResponse(out, "No valid move operations found in Excel file");
-                return;
+            if (async) {
+                String userId = request.getResourceResolver().getUserID();
+                if (userId == null) {
+                    response.setStatus(HttpServletResponse.SC_FORBIDDEN);
+                    writeErrorResponse(out, "Page move jobs need an authenticated user");
+                    return;
+                }
+                submitJob(excelFile, batchSize, userId, response);
+            } else {
+                executePageMoves(excelFile, plan, pipelined, queueSize, batchSize,
+                        request.getResourceResolver(), out);
             }
             
-            // Execute page moves
-            List<String> results = executePageMoves(moveOperations, request.getResourceResolver().adaptTo(Session.class));
-            
-            // Write success response
-            writeSuccessResponse(out, results);
-            
         } catch (Exception e) {
             LOG.error("Error processing page move request", e);
             writeErrorResponse(out, "Error processing request: " + e.getMessage());
         }
     }
     
-    private List<PageMoveOperation> parseExcelFile(InputStream inputStream, String fileName) 
-            throws IOException {
-        
-        List<PageMoveOperation> operations = new ArrayList<>();
-        Workbook workbook = null;
-        
+    @Override
+    protected void doGet(SlingHttpServletRequest request, SlingHttpServletResponse response)
+            throws ServletException, IOException {
+        if (!PROGRESS_PATH.equals(request.getRequestPathInfo().getResourcePath())) {
+            response.sendError(HttpServletResponse.SC_METHOD_NOT_ALLOWED);
+            return;
+        }
+        String jobId = request.getParameter("jobId");
+        long from = 0;
         try {
-            // Determine workbook type based on file extension
-            if (fileName.toLowerCase().endsWith(".xlsx")) {
-                workbook = new XSSFWorkbook(inputStream);
-            } else if (fileName.toLowerCase().endsWith(".xls")) {
-                workbook = new HSSFWorkbook(inputStream);
-            } else {
-                throw new IOException("Unsupported file format. Please use .xlsx or .xls files.");
-            }
-            
-            Sheet sheet = workbook.getSheetAt(0); // Get first sheet
-            
-            // Skip header row if present (assuming row 0 is header)
-            int startRow = 1;
-            if (sheet.getPhysicalNumberOfRows() > 0) {
-                Row firstRow = sheet.getRow(0);
-                if (firstRow != null && firstRow.getCell(0) != null) {
-                    String firstCellValue = getCellValueAsString(firstRow.getCell(0));
-                    if (firstCellValue.toLowerCase().contains("source") || 
-                        firstCellValue.toLowerCase().contains("from")) {
-                        startRow = 1; // Skip header
-                    } else {
-                        startRow = 0; // No header, start from first row
-                    }
-                }
+            from = Math.max(0, Long.parseLong(request.getParameter("from")));
+        } catch (NumberFormatException e) {
+            // stream from the first result
+        }
+        
+        try (ResourceResolver resourceResolver = resolverFactory.getServiceResourceResolver(serviceAuthInfo())) {
+            Session session = resourceResolver.adaptTo(Session.class);
+            PageMoveJob job = session != null ? PageMoveJob.load(session, jobId) : null;
+            // other users' jobs are reported as unknown, a job id alone doesn't grant access
+            if (job == null || job.getUserId() == null
+                    || !job.getUserId().equals(request.getResourceResolver().getUserID())) {
+                response.sendError(HttpServletResponse.SC_NOT_FOUND, "Unknown job " + jobId);
+                return;
             }
-            
-            // Process each row
-            for (int i = startRow; i <= sheet.getLastRowNum(); i++) {
-                Row row = sheet.getRow(i);
-                if (row == null) continue;
-                
-                Cell sourceCell = row.getCell(0);
-                Cell destinationCell = row.getCell(1);
-                
-                if (sourceCell == null || destinationCell == null) continue;
-                
-                String sourcePath = getCellValueAsString(sourceCell);
-                String destinationPath = getCellValueAsString(destinationCell);
-                
-                if (sourcePath != null && !sourcePath.trim().isEmpty() && 
-                    destinationPath != null && !destinationPath.trim().isEmpty()) {
-                    
-                    operations.add(new PageMoveOperation(sourcePath.trim(), destinationPath.trim()));
-                }
+            writeProgress(job, from, response);
+        } catch (LoginException | RepositoryException e) {
+            LOG.error("Error reading progress of page move job {}", jobId, e);
+            if (!response.isCommitted()) {
+                response.sendError(HttpServletResponse.SC_INTERNAL_SERVER_ERROR);
             }
-            
-        } finally {
-            if (workbook != null) {
-                workbook.close();
+        }
+    }
+    
+    /**
+     * Writes one NDJSON line per result committed from {@code from} on, and a final line with the
+     * job state and the {@code from} to poll with next. It doesn't wait for further results, so a
+     * request thread is never held while the job runs.
+     */
+    private void writeProgress(PageMoveJob job, long from, SlingHttpServletResponse response)
+            throws RepositoryException, IOException {
+        response.setContentType("application/x-ndjson");
+        response.setCharacterEncoding("UTF-8");
+        PrintWriter out = response.getWriter();
+        long index = from;
+        for (String result : job.readResults(from)) {
+            Map<String, Object> line = new LinkedHashMap<>();
+            line.put("index", index++);
+            line.put("result", result);
+            out.write(objectMapper.writeValueAsString(line));
+            out.write('\n');
+        }
+        Map<String, Object> line = new LinkedHashMap<>();
+        line.put("job", job.toMap());
+        line.put("from", index);
+        out.write(objectMapper.writeValueAsString(line));
+        out.write('\n');
+        out.flush();
+    }
+    
+    private void submitJob(FileItem excelFile, int batchSize, String userId, SlingHttpServletResponse response)
+            throws IOException, LoginException, RepositoryException {
+        String jobId;
+        try (ResourceResolver resourceResolver = resolverFactory.getServiceResourceResolver(serviceAuthInfo());
+             InputStream inputStream = excelFile.getInputStream()) {
+            Session session = resourceResolver.adaptTo(Session.class);
+            if (session == null) {
+                throw new RepositoryException("No session available to store the page move job");
             }
+            jobId = PageMoveJob.create(session, inputStream, excelFile.getName(), batchSize, userId).getId();
         }
+        executor.submit(() -> runJob(jobId));
+        LOG.info("Submitted page move job {} for {} by {}", jobId, excelFile.getName(), userId);
         
-        return operations;
+        Map<String, Object> json = new LinkedHashMap<>();
+        json.put("status", "accepted");
+        json.put("jobId", jobId);
+        json.put("progress", PROGRESS_PATH + "?jobId=" + jobId);
+        response.setStatus(HttpServletResponse.SC_ACCEPTED);
+        response.getWriter().write(objectMapper.writeValueAsString(json));
     }
     
-    private String getCellValueAsString(Cell cell) {
-        if (cell == null) return null;
-        
-        switch (cell.getCellType()) {
-            case STRING:
-                return cell.getStringCellValue();
-            case NUMERIC:
-                return String.valueOf((long) cell.getNumericCellValue());
-            case BOOLEAN:
-                return String.valueOf(cell.getBooleanCellValue());
-            case FORMULA:
-                return cell.getCellFormula();
-            default:
-                return null;
+    private void resumeJobs() {
+        try (ResourceResolver resourceResolver = resolverFactory.getServiceResourceResolver(serviceAuthInfo())) {
+            Session session = resourceResolver.adaptTo(Session.class);
+            if (session == null) {
+                LOG.error("No session available to resume page move jobs");
+                return;
+            }
+            Calendar cutoff = Calendar.getInstance();
+            cutoff.add(Calendar.DAY_OF_MONTH, -FINISHED_JOB_RETENTION_DAYS);
+            int removed = PageMoveJob.removeFinished(session, cutoff);
+            if (removed > 0) {
+                LOG.info("Removed {} finished page move jobs", removed);
+            }
+            for (String jobId : PageMoveJob.findUnfinished(session)) {
+                LOG.info("Resuming page move job {}", jobId);
+                executor.submit(() -> runJob(jobId));
+            }
+        } catch (LoginException | RepositoryException e) {
+            LOG.error("Could not resume page move jobs", e);
         }
     }
     
-    private List<String> executePageMoves(List<PageMoveOperation> operations, Session session) {
-        List<String> results = new ArrayList<>();
-        
-        for (PageMoveOperation operation : operations) {
+    private void runJob(String jobId) {
+        if (stopping) {
+            // still queued when the component was deactivated, resumed on the next activation
+            return;
+        }
+        if (!RUNNING_JOBS.add(jobId)) {
+            LOG.warn("Page move job {} is still running from a previous activation, not starting it again", jobId);
+            return;
+        }
+        try {
+            executeJob(jobId);
+        } finally {
+            RUNNING_JOBS.remove(jobId);
+        }
+    }
+
+    private void executeJob(String jobId) {
+        try (ResourceResolver resourceResolver = resolverFactory.getServiceResourceResolver(serviceAuthInfo())) {
+            Session session = resourceResolver.adaptTo(Session.class);
+            PageMoveJob job = session != null ? PageMoveJob.load(session, jobId) : null;
+            if (job == null) {
+                LOG.error("Page move job {} not found", jobId);
+                return;
+            }
             try {
-                String result = movePageOperation(operation.getSourcePath(), 
-                                                operation.getDestinationPath(), session);
-                results.add(result);
-                
+                job.start();
+                String userId = job.getUserId();
+                if (userId == null) {
+                    throw new IllegalStateException("Job has no owner to run the moves as");
+                }
+                try (ResourceResolver ownerResolver = resolverFactory.getServiceResourceResolver(impersonating(userId))) {
+                    runMoves(job, ownerResolver);
+                }
             } catch (Exception e) {
-                String errorMsg = String.format("Failed to move page from %s to %s: %s", 
-                                              operation.getSourcePath(), 
-                                              operation.getDestinationPath(), 
-                                              e.getMessage());
-                LOG.error(errorMsg, e);
-                results.add(errorMsg);
+                LOG.error("Page move job {} failed", jobId, e);
+                session.refresh(false);
+                job.finish("Error processing request: " + e.getMessage());
             }
+        } catch (LoginException | RepositoryException e) {
+            LOG.error("Could not run page move job {}", jobId, e);
         }
-        
-        return results;
     }
-    
-    private String movePageOperation(String sourcePath, String destinationPath, Session session) 
-            throws WCMException, RepositoryException {
-        
-        // Get the page to move
-        Page sourcePage = pageManager.getPage(sourcePath);
-        if (sourcePage == null) {
-            throw new WCMException("Source page not found: " + sourcePath);
+
+    /**
+     * Plans the job if needed and makes its remaining moves with the owner's resolver; the
+     * checkpoints are saved with the job's session after each batch.
+     */
+    private void runMoves(PageMoveJob job, ResourceResolver ownerResolver) throws Exception {
+        String jobId = job.getId();
+        PageManager pageManager = ownerResolver.adaptTo(PageManager.class);
+        Session ownerSession = ownerResolver.adaptTo(Session.class);
+        if (pageManager == null || ownerSession == null) {
+            throw new RepositoryException("No session available for " + job.getUserId());
         }
-        
-        // Validate destination path
-        String destinationParent = destinationPath.substring(0, destinationPath.lastIndexOf('/'));
-        String newPageName = destinationPath.substring(destinationPath.lastIndexOf('/') + 1);
-        
-        Page destinationParentPage = pageManager.getPage(destinationParent);
-        if (destinationParentPage == null) {
-            throw new WCMException("Destination parent page not found: " + destinationParent);
+        if (!job.isPlanned()) {
+            planJob(job, ownerSession);
         }
-        
-        // Check if destination already exists
-        Page existingPage = pageManager.getPage(destinationPath);
-        if (existingPage != null) {
-            throw new WCMException("Destination page already exists: " + destinationPath);
+
+        PageMoveBatch batch = new PageMoveBatch(pageManager, ownerSession, job.getBatchSize(), false, result -> { });
+        batch.setCheckpoint(job);
+        job.forEachRemaining(batch, () -> stopping);
+        batch.flush();
+        if (stopping) {
+            LOG.info("Page move job {} stopped at {} operations, it resumes on the next start",
+                    jobId, job.getProcessed());
+            return;
         }
-        
-        // Perform the move operation
-        Node sourceNode = sourcePage.adaptTo(Node.class);
-        Node destinationParentNode = destinationParentPage.adaptTo(Node.class);
-        
-        // Move the node
-        session.move(sourceNode.getPath(), destinationParentNode.getPath() + "/" + newPageName);
-        session.save();
-        
-        String successMsg = String.format("Successfully moved page from %s to %s", 
-                                        sourcePath, destinationPath);
-        LOG.info(successMsg);
-        return successMsg;
+        job.finish(null);
+        LOG.info("Page move job {} completed: {} moved, {} failed, {} saves",
+                jobId, batch.getMoved(), batch.getFailed(), batch.getSaves());
     }
-    
-    private void writeSuccessResponse(PrintWriter out, List<String> results) {
-        out.write("{");
-        out.write("\"status\": \"success\",");
-        out.write("\"message\": \"Page move operations completed\",");
-        out.write("\"results\": [");
-        
-        for (int i = 0; i < results.size(); i++) {
-            out.write("\"" + escapeJson(results.get(i)) + "\"");
-            if (i < results.size() - 1) {
-                out.write(",");
-            }
+
+    /**
+     * Plans the job's sheet as its owner, rejecting the moves they aren't allowed to make.
+     */
+    private void planJob(PageMoveJob job, Session ownerSession) throws Exception {
+        List<PageMoveOperation> moveOperations = new ArrayList<>();
+        try (InputStream inputStream = job.openSheet()) {
+            PageMoveSheetReader.read(inputStream, job.getFileName(), moveOperations::add);
         }
-        
-        out.write("]");
-        out.write("}");
+        job.storePlan(PageMovePlanner.plan(ownerSession, moveOperations, ownerSession));
     }
-    
-    private void writeErrorResponse(PrintWriter out, String message) {
-        out.write("{");
-        out.write("\"status\": \"error\",");
-        out.write("\"message\": \"" + escapeJson(message) + "\"");
-        out.write("}");
+
+    private static Map<String, Object> serviceAuthInfo() {
+        return Collections.singletonMap(ResourceResolverFactory.SUBSERVICE, SUBSERVICE);
     }
-    
-    private String escapeJson(String value) {
-        return value.replace("\\", "\\\\")
-                   .replace("\"", "\\\"")
-                   .replace("\n", "\\n")
-                   .replace("\r", "\\r")
-                   .replace("\t", "\\t");
+
+    private static Map<String, Object> impersonating(String userId) {
+        Map<String, Object> authInfo = new HashMap<>();
+        authInfo.put(ResourceResolverFactory.SUBSERVICE, SUBSERVICE);
+        authInfo.put(ResourceResolverFactory.USER_IMPERSONATION, userId);
+        return authInfo;
     }
-    
-    // Inner class to hold move operation data
-    private static class PageMoveOperation {
-        private final String sourcePath;
-        private final String destinationPath;
+
+    /**
+     * Runs the moves within the request and streams each result into the response as soon as
+     * its batch is committed.
+     */
+    private void executePageMoves(FileItem excelFile, boolean plan, boolean pipelined, int queueSize, int batchSize,
+                                  ResourceResolver resourceResolver, PrintWriter out) throws IOException {
+        PageManager pageManager = resourceResolver.adaptTo(PageManager.class);
+        Session session = resourceResolver.adaptTo(Session.class);
         
-        public PageMoveOperation(String sourcePath, String destinationPath) {
-            this.sourcePath = sourcePath;
-            this.destinationPath = destinationPath;
-        }
+        JsonGenerator json = objectMapper.getFactory().createGenerator(out);
+        json.writeStartObject();
+        json.writeArrayFieldStart("results");
+        PageMoveBatch batch = new PageMoveBatch(pageManager, session, batchSize, !plan, result -> {
+            try {
+                json.writeString(result);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        });
         
-        public String getSourcePath() {
-            return sourcePath;
+        int operationCount = 0;
+        String error = null;
+        try {
+            // Process the Excel or CSV file, rows are streamed rather than loaded as a workbook
+            try (InputStream inputStream = excelFile.getInputStream()) {
+                if (plan) {
+                    // order and validate all rows up front, so rows may depend on later rows
+                    List<PageMoveOperation> moveOperations = new ArrayList<>();
+                    operationCount = PageMoveSheetReader.read(inputStream, excelFile.getName(), moveOperations::add);
+                    PageMovePlanner.Plan movePlan = PageMovePlanner.plan(session, moveOperations);
+                    for (String rejection : movePlan.getRejections()) {
+                        json.writeString(rejection);
+                    }
+                    movePlan.getOperations().forEach(batch::add);
+                } else if (pipelined) {
+                    // moves start while the rest of the sheet is still being parsed
+                    operationCount = new PageMovePipeline(queueSize).run(inputStream, excelFile.getName(), batch::add);
+                } else {
+                    List<PageMoveOperation> moveOperations = new ArrayList<>();
+                    operationCount = PageMoveSheetReader.read(inputStream, excelFile.getName(), moveOperations::add);
+                    moveOperations.forEach(batch::add);
+                }
+            } finally {
+                // commit the moves applied so far, also if reading the sheet failed half way
+                batch.flush();
+            }
+            LOG.info("Moved {} of {} pages with {} saves", batch.getMoved(), operationCount, batch.getSaves());
+            if (operationCount == 0) {
+                error = "No valid move operations found in Excel file";
+            }
+        } catch (Exception e) {
+            LOG.error("Error processing page move request", e);
+            error = "Error processing request: " + e.getMessage();
         }
         
-        public String getDestinationPath() {
-            return destinationPath;
+        json.writeEndArray();
+        json.writeStringField("status", error == null ? "success" : "error");
+        json.writeStringField("message", error == null ? "Page move operations completed" : error);
+        json.writeEndObject();
+        json.flush();
+    }
+    
+    private static int parseSize(String value, String fieldName, int defaultValue) {
+        try {
+            return Math.max(1, Integer.parseInt(value.trim()));
+        } catch (NumberFormatException e) {
+            LOG.warn("Ignoring invalid {} {}", fieldName, value);
+            return defaultValue;
         }
     }
-                            }
+    
+    private void writeErrorResponse(PrintWriter out, String message) throws IOException {
+        Map<String, Object> json = new LinkedHashMap<>();
+        json.put("status", "error");
+        json.put("message", message);
+        out.write(objectMapper.writeValueAsString(json));
+    }
+}
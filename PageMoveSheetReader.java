@@ -0,0 +1,246 @@
+package com.yourcompany.core.servlets;
+
+import org.apache.poi.hssf.usermodel.HSSFWorkbook;
+import org.apache.poi.openxml4j.exceptions.OpenXML4JException;
+import org.apache.poi.openxml4j.opc.OPCPackage;
+import org.apache.poi.openxml4j.opc.PackageAccess;
+import org.apache.poi.ss.usermodel.Cell;
+import org.apache.poi.ss.usermodel.DataFormatter;
+import org.apache.poi.ss.usermodel.Row;
+import org.apache.poi.ss.usermodel.Sheet;
+import org.apache.poi.ss.usermodel.Workbook;
+import org.apache.poi.ss.util.CellReference;
+import org.apache.poi.util.XMLHelper;
+import org.apache.poi.xssf.eventusermodel.ReadOnlySharedStringsTable;
+import org.apache.poi.xssf.eventusermodel.XSSFReader;
+import org.apache.poi.xssf.eventusermodel.XSSFSheetXMLHandler;
+import org.apache.poi.xssf.model.StylesTable;
+import org.apache.poi.xssf.usermodel.XSSFComment;
+import org.xml.sax.InputSource;
+import org.xml.sax.SAXException;
+import org.xml.sax.XMLReader;
+
+import javax.xml.parsers.ParserConfigurationException;
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Iterator;
+import java.util.function.Consumer;
+
+/**
+ * Reads page move sheets row by row and hands each row to a consumer as soon as it is parsed.
+ *
+ * {@code .xlsx} files are read with the POI event API (SAX over the sheet XML, shared strings
+ * read-only), {@code .csv} files with a small RFC 4180 reader, so memory stays flat regardless of
+ * the number of rows. Legacy {@code .xls} files are still loaded as a workbook; the format is
+ * limited to 65,536 rows anyway.
+ *
+ * Column A holds the source path, column B the destination path. A first row whose first cell
+ * contains "source" or "from" is treated as a header and skipped.
+ */
+final class PageMoveSheetReader {
+
+    private PageMoveSheetReader() {
+    }
+
+    /**
+     * @return the number of operations passed to {@code consumer}
+     */
+    static int read(InputStream inputStream, String fileName, Consumer<PageMoveOperation> consumer)
+            throws IOException {
+        String lowerCaseName = fileName.toLowerCase();
+        RowCollector collector = new RowCollector(consumer);
+        if (lowerCaseName.endsWith(".xlsx")) {
+            readXlsx(inputStream, collector);
+        } else if (lowerCaseName.endsWith(".csv")) {
+            readCsv(new InputStreamReader(inputStream, StandardCharsets.UTF_8), collector);
+        } else if (lowerCaseName.endsWith(".xls")) {
+            readXls(inputStream, collector);
+        } else {
+            throw new IOException("Unsupported file format. Please use .xlsx, .xls or .csv files.");
+        }
+        return collector.count;
+    }
+
+    private static void readXlsx(InputStream inputStream, RowCollector collector) throws IOException {
+        // OPCPackage.open(InputStream) buffers the whole zip in memory, a file is read entry by entry
+        File file = Files.createTempFile("page-move-", ".xlsx").toFile();
+        try {
+            Files.copy(inputStream, file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            try (OPCPackage pkg = OPCPackage.open(file, PackageAccess.READ)) {
+                XSSFReader reader = new XSSFReader(pkg);
+                ReadOnlySharedStringsTable strings = new ReadOnlySharedStringsTable(pkg);
+                StylesTable styles = reader.getStylesTable();
+                Iterator<InputStream> sheets = reader.getSheetsData();
+                if (!sheets.hasNext()) {
+                    return;
+                }
+                try (InputStream sheet = sheets.next()) {
+                    XMLReader parser = XMLHelper.newXMLReader();
+                    parser.setContentHandler(new XSSFSheetXMLHandler(styles, null, strings,
+                            new SheetHandler(collector), new DataFormatter(), false));
+                    parser.parse(new InputSource(sheet));
+                }
+            }
+        } catch (OpenXML4JException | SAXException | ParserConfigurationException e) {
+            throw new IOException("Could not read the Excel file: " + e.getMessage(), e);
+        } finally {
+            Files.deleteIfExists(file.toPath());
+        }
+    }
+
+    private static void readXls(InputStream inputStream, RowCollector collector) throws IOException {
+        DataFormatter formatter = new DataFormatter();
+        try (Workbook workbook = new HSSFWorkbook(inputStream)) {
+            Sheet sheet = workbook.getSheetAt(0);
+            for (Row row : sheet) {
+                Cell sourceCell = row.getCell(0);
+                Cell destinationCell = row.getCell(1);
+                collector.row(row.getRowNum(),
+                        sourceCell != null ? formatter.formatCellValue(sourceCell) : null,
+                        destinationCell != null ? formatter.formatCellValue(destinationCell) : null);
+            }
+        }
+    }
+
+    private static void readCsv(Reader in, RowCollector collector) throws IOException {
+        BufferedReader reader = new BufferedReader(in);
+        String[] cells = new String[2];
+        StringBuilder cell = new StringBuilder();
+        int column = 0;
+        int rowNum = 0;
+        boolean quoted = false;
+        boolean rowHasContent = false;
+
+        int c = reader.read();
+        if (c == '\uFEFF') {
+            c = reader.read();
+        }
+        for (; c != -1; c = reader.read()) {
+            if (quoted) {
+                if (c == '"') {
+                    reader.mark(1);
+                    if (reader.read() == '"') {
+                        cell.append('"');
+                    } else {
+                        reader.reset();
+                        quoted = false;
+                    }
+                } else {
+                    cell.append((char) c);
+                }
+            } else if (c == '"') {
+                quoted = true;
+                rowHasContent = true;
+            } else if (c == ',') {
+                if (column < cells.length) {
+                    cells[column] = cell.toString();
+                }
+                cell.setLength(0);
+                column++;
+                rowHasContent = true;
+            } else if (c == '\n' || c == '\r') {
+                if (c == '\r') {
+                    reader.mark(1);
+                    if (reader.read() != '\n') {
+                        reader.reset();
+                    }
+                }
+                if (rowHasContent || cell.length() > 0) {
+                    endCsvRow(collector, rowNum, cells, column, cell);
+                }
+                rowNum++;
+                cells = new String[2];
+                cell.setLength(0);
+                column = 0;
+                rowHasContent = false;
+            } else {
+                cell.append((char) c);
+            }
+        }
+        if (rowHasContent || cell.length() > 0) {
+            endCsvRow(collector, rowNum, cells, column, cell);
+        }
+    }
+
+    private static void endCsvRow(RowCollector collector, int rowNum, String[] cells, int column, StringBuilder cell) {
+        if (column < cells.length) {
+            cells[column] = cell.toString();
+        }
+        collector.row(rowNum, cells[0], cells[1]);
+    }
+
+    /**
+     * Turns sheet rows into operations, shared by all formats.
+     */
+    private static final class RowCollector {
+        private final Consumer<PageMoveOperation> consumer;
+        private boolean firstRow = true;
+        private int count;
+
+        RowCollector(Consumer<PageMoveOperation> consumer) {
+            this.consumer = consumer;
+        }
+
+        void row(int rowNum, String sourcePath, String destinationPath) {
+            boolean header = firstRow && sourcePath != null
+                    && (sourcePath.toLowerCase().contains("source") || sourcePath.toLowerCase().contains("from"));
+            firstRow = false;
+            if (header) {
+                return;
+            }
+            if (sourcePath != null && !sourcePath.trim().isEmpty()
+                    && destinationPath != null && !destinationPath.trim().isEmpty()) {
+                consumer.accept(new PageMoveOperation(sourcePath.trim(), destinationPath.trim()));
+                count++;
+            }
+        }
+    }
+
+    /**
+     * Collects the first two cells of each row from the SAX events of one sheet.
+     */
+    private static final class SheetHandler implements XSSFSheetXMLHandler.SheetContentsHandler {
+        private final RowCollector collector;
+        private String sourcePath;
+        private String destinationPath;
+        private int column;
+
+        SheetHandler(RowCollector collector) {
+            this.collector = collector;
+        }
+
+        @Override
+        public void startRow(int rowNum) {
+            sourcePath = null;
+            destinationPath = null;
+            column = 0;
+        }
+
+        @Override
+        public void endRow(int rowNum) {
+            collector.row(rowNum, sourcePath, destinationPath);
+        }
+
+        @Override
+        public void cell(String cellReference, String formattedValue, XSSFComment comment) {
+            int cellColumn = cellReference != null ? new CellReference(cellReference).getCol() : column;
+            column = cellColumn + 1;
+            if (cellColumn == 0) {
+                sourcePath = formattedValue;
+            } else if (cellColumn == 1) {
+                destinationPath = formattedValue;
+            }
+        }
+
+        @Override
+        public void headerFooter(String text, boolean isHeader, String tagName) {
+        }
+    }
+}
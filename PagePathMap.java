@@ -0,0 +1,123 @@
+package com.example.core.servlets;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Old to new page path mappings collected during a move, used to rewrite references in one pass.
+ *
+ * Lookups are prefix-aware: a mapping for {@code /a/b} also rewrites {@code /a/b/c},
+ * {@code /a/b.html} and {@code /a/b/jcr:content}, but not {@code /a/bc}. Mappings recorded for a
+ * page that had already been moved as part of an earlier mapping are chained.
+ */
+class PagePathMap {
+
+    private final Map<String, String> mappings = new HashMap<>();
+    private String commonPrefix;
+
+    void put(String oldPath, String newPath) {
+        mappings.put(oldPath, newPath);
+        commonPrefix = commonPrefix == null ? oldPath : commonPrefix(commonPrefix, oldPath);
+    }
+
+    int size() {
+        return mappings.size();
+    }
+
+    boolean isEmpty() {
+        return mappings.isEmpty();
+    }
+
+    /**
+     * Maps a single path through the longest matching mapping.
+     *
+     * @return the new path, or {@code path} itself if no mapping applies
+     */
+    String resolve(String path) {
+        String result = path;
+        // follow chains, bounded in case a move sequence ever leads back to a previous path
+        for (int i = 0; i <= mappings.size(); i++) {
+            String mapped = mapOnce(result);
+            if (mapped == null) {
+                break;
+            }
+            result = mapped;
+        }
+        return result;
+    }
+
+    /**
+     * Rewrites every mapped path occurring in {@code value}, e.g. links in rich text.
+     *
+     * @return the rewritten value, or {@code value} itself if nothing changed
+     */
+    String rewrite(String value) {
+        if (commonPrefix == null || !value.contains(commonPrefix)) {
+            return value;
+        }
+        StringBuilder result = null;
+        int copied = 0;
+        int index = value.indexOf(commonPrefix);
+        while (index >= 0) {
+            int end = tokenEnd(value, index);
+            String token = value.substring(index, end);
+            String mapped = resolve(token);
+            if (mapped != token) {
+                if (result == null) {
+                    result = new StringBuilder(value.length() + 64);
+                }
+                result.append(value, copied, index).append(mapped);
+                copied = end;
+            }
+            index = value.indexOf(commonPrefix, end);
+        }
+        if (result == null) {
+            return value;
+        }
+        return result.append(value, copied, value.length()).toString();
+    }
+
+    /**
+     * Longest mapped prefix of {@code path} ending at a segment or extension boundary.
+     */
+    private String mapOnce(String path) {
+        String exact = mappings.get(path);
+        if (exact != null) {
+            return exact;
+        }
+        for (int i = path.length() - 1; i > 0; i--) {
+            char c = path.charAt(i);
+            if (c == '/' || c == '.') {
+                String mapped = mappings.get(path.substring(0, i));
+                if (mapped != null) {
+                    return mapped + path.substring(i);
+                }
+            }
+        }
+        return null;
+    }
+
+    private static int tokenEnd(String value, int start) {
+        int i = start;
+        while (i < value.length()) {
+            char c = value.charAt(i);
+            if (Character.isWhitespace(c) || c == '"' || c == '\'' || c == '<' || c == '>'
+                    || c == '?' || c == '#' || c == ',' || c == ';' || c == ')' || c == '&') {
+                break;
+            }
+            i++;
+        }
+        return i;
+    }
+
+    private static String commonPrefix(String first, String second) {
+        int length = Math.min(first.length(), second.length());
+        int i = 0;
+        while (i < length && first.charAt(i) == second.charAt(i)) {
+            i++;
+        }
+        // cut back to a whole segment, "/content/site/a" and "/content/site/b" share "/content/site/"
+        int slash = first.lastIndexOf('/', i - 1);
+        return first.substring(0, Math.max(slash + 1, 1));
+    }
+}
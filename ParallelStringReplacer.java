@@ -0,0 +1,200 @@
+import org.apache.sling.api.resource.LoginException;
+import org.apache.sling.api.resource.ResourceResolver;
+import org.apache.sling.api.resource.ResourceResolverFactory;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.jcr.Node;
+import javax.jcr.NodeIterator;
+import javax.jcr.RepositoryException;
+import javax.jcr.Session;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Runs {@link BulkStringReplacer} over a large tree with several workers.
+ *
+ * The tree is cut at {@code partitionDepth} below the root: nodes above that depth are processed by
+ * the calling thread, every node at that depth becomes one partition, i.e. a disjoint subtree. The
+ * caller feeds partitions through a bounded queue (blocking when it is full) to
+ * {@code workerCount} workers. Each worker has its own service session and saves its own batches,
+ * so pending changes of different workers never meet in one session.
+ */
+public class ParallelStringReplacer {
+
+    private static final Logger log = LoggerFactory.getLogger(ParallelStringReplacer.class);
+
+    // compared by identity, can't clash with a real path
+    private static final String END_OF_WORK = new String("end-of-work");
+
+    private final ResourceResolverFactory resolverFactory;
+    private final List<? extends StringReplacement> rules;
+    private final int saveInterval;
+    private final int workerCount;
+    private final int queueCapacity;
+
+    private boolean dryRun;
+    private ReplacementReport report;
+    private double valueLogSampleRate;
+
+    public ParallelStringReplacer(ResourceResolverFactory resolverFactory, List<? extends StringReplacement> rules,
+                                  int saveInterval, int workerCount, int queueCapacity) {
+        this.resolverFactory = resolverFactory;
+        this.rules = rules;
+        this.saveInterval = saveInterval;
+        this.workerCount = Math.max(1, workerCount);
+        this.queueCapacity = Math.max(1, queueCapacity);
+    }
+
+    /** See {@link BulkStringReplacer#setDryRun}. */
+    public void setDryRun(boolean dryRun) {
+        this.dryRun = dryRun;
+    }
+
+    /** See {@link BulkStringReplacer#setReport}; the report is shared by all workers. */
+    public void setReport(ReplacementReport report) {
+        this.report = report;
+    }
+
+    /** See {@link BulkStringReplacer#setValueLogSampleRate}. */
+    public void setValueLogSampleRate(double valueLogSampleRate) {
+        this.valueLogSampleRate = valueLogSampleRate;
+    }
+
+    /**
+     * Replaces in {@code rootPath} and everything below it and waits until all workers are done.
+     *
+     * @param partitionDepth depth below the root at which the tree is split into partitions;
+     *                       0 hands the whole tree to a single worker
+     */
+    public ReplacementProgress replaceInSubtree(String rootPath, int partitionDepth) {
+        ReplacementProgress progress = new ReplacementProgress();
+        BlockingQueue<String> queue = new ArrayBlockingQueue<>(queueCapacity);
+        AtomicInteger liveWorkers = new AtomicInteger(workerCount);
+        ExecutorService executor = Executors.newFixedThreadPool(workerCount);
+        for (int i = 0; i < workerCount; i++) {
+            executor.execute(() -> {
+                try {
+                    runWorker(queue, progress);
+                } finally {
+                    liveWorkers.decrementAndGet();
+                }
+            });
+        }
+
+        try (ResourceResolver resourceResolver = resolverFactory.getServiceResourceResolver(null)) {
+            Session session = resourceResolver.adaptTo(Session.class);
+            if (session == null) {
+                throw new RepositoryException("No session available for " + rootPath);
+            }
+            BulkStringReplacer coordinator = newReplacer(progress);
+            partition(session.getNode(rootPath), partitionDepth, coordinator, queue, liveWorkers);
+            coordinator.flush(session);
+        } catch (LoginException | RepositoryException e) {
+            log.error("Error partitioning {} for parallel replacement", rootPath, e);
+            progress.failed();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            log.warn("Interrupted while partitioning {}", rootPath);
+        } finally {
+            stopWorkers(queue, liveWorkers);
+            executor.shutdown();
+            awaitTermination(executor);
+            progress.finish();
+        }
+        log.info("Parallel replacement of {} finished with {} workers: {}", rootPath, workerCount, progress);
+        return progress;
+    }
+
+    private BulkStringReplacer newReplacer(ReplacementProgress progress) {
+        BulkStringReplacer replacer = new BulkStringReplacer(rules, saveInterval, progress);
+        replacer.setDryRun(dryRun);
+        replacer.setReport(report);
+        replacer.setValueLogSampleRate(valueLogSampleRate);
+        return replacer;
+    }
+
+    private void partition(Node node, int depth, BulkStringReplacer coordinator, BlockingQueue<String> queue,
+                           AtomicInteger liveWorkers) throws RepositoryException, InterruptedException {
+        if (depth <= 0) {
+            enqueue(node.getPath(), queue, liveWorkers);
+            return;
+        }
+        coordinator.visit(node);
+        List<Node> children = new ArrayList<>();
+        NodeIterator iterator = node.getNodes();
+        while (iterator.hasNext()) {
+            children.add(iterator.nextNode());
+        }
+        for (Node child : children) {
+            partition(child, depth - 1, coordinator, queue, liveWorkers);
+        }
+    }
+
+    private void enqueue(String path, BlockingQueue<String> queue, AtomicInteger liveWorkers)
+            throws RepositoryException, InterruptedException {
+        while (!queue.offer(path, 1, TimeUnit.SECONDS)) {
+            if (liveWorkers.get() == 0) {
+                throw new RepositoryException("No replacement workers left to take " + path);
+            }
+        }
+    }
+
+    private void runWorker(BlockingQueue<String> queue, ReplacementProgress progress) {
+        try (ResourceResolver resourceResolver = resolverFactory.getServiceResourceResolver(null)) {
+            Session session = resourceResolver.adaptTo(Session.class);
+            if (session == null) {
+                log.error("No session available for replacement worker");
+                progress.failed();
+                return;
+            }
+            BulkStringReplacer replacer = newReplacer(progress);
+            String path;
+            while ((path = queue.take()) != END_OF_WORK) {
+                try {
+                    replacer.walk(session.getNode(path));
+                } catch (RepositoryException e) {
+                    log.error("Error replacing strings in partition {}", path, e);
+                    progress.failed();
+                }
+            }
+            replacer.flush(session);
+        } catch (LoginException e) {
+            log.error("Could not open a session for replacement worker", e);
+            progress.failed();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void stopWorkers(BlockingQueue<String> queue, AtomicInteger liveWorkers) {
+        try {
+            for (int i = 0; i < workerCount; i++) {
+                while (!queue.offer(END_OF_WORK, 1, TimeUnit.SECONDS)) {
+                    if (liveWorkers.get() == 0) {
+                        return;
+                    }
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void awaitTermination(ExecutorService executor) {
+        try {
+            while (!executor.awaitTermination(1, TimeUnit.MINUTES)) {
+                log.info("Waiting for replacement workers to finish");
+            }
+        } catch (InterruptedException e) {
+            executor.shutdownNow();
+            Thread.currentThread().interrupt();
+        }
+    }
+}
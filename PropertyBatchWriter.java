@@ -0,0 +1,220 @@
+import org.apache.sling.api.resource.ResourceResolver;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.jcr.RepositoryException;
+import javax.jcr.Session;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.function.Consumer;
+
+/**
+ * Queues property writes across many nodes and saves them in batches of {@code saveInterval}
+ * changes with one pooled session, instead of one {@code session.save()} per property.
+ *
+ * If a batch fails to save, its changes are discarded and only that batch is replayed: first as a
+ * whole, then one change per save so the offending items can be reported while the rest are kept.
+ * Writes that fail are collected in {@link #getFailures()}; the writer keeps going.
+ *
+ * Not thread-safe. Always {@link #close()} the writer, it flushes the last batch and returns the
+ * session to the pool.
+ */
+public class PropertyBatchWriter implements AutoCloseable {
+
+    private static final Logger log = LoggerFactory.getLogger(PropertyBatchWriter.class);
+
+    private final ServiceResolverPool resolverPool;
+    private final ResourceResolver resourceResolver;
+    private final Session session;
+    private final int saveInterval;
+    private final Consumer<String> onSaved;
+
+    private final List<Mutation> pending = new ArrayList<>();
+    private final List<Failure> failures = new ArrayList<>();
+    private long written;
+    private long saves;
+    private boolean closed;
+
+    PropertyBatchWriter(ServiceResolverPool resolverPool, ResourceResolver resourceResolver, int saveInterval,
+                        Consumer<String> onSaved) {
+        this.resolverPool = resolverPool;
+        this.resourceResolver = resourceResolver;
+        this.session = resourceResolver.adaptTo(Session.class);
+        this.saveInterval = Math.max(1, saveInterval);
+        this.onSaved = onSaved;
+        if (session == null) {
+            resolverPool.release(resourceResolver);
+            throw new IllegalStateException("No JCR session available for batch writes");
+        }
+    }
+
+    /**
+     * Queues a write; values are stored the same way as {@link JcrPropertyService#setNodeProperty}.
+     * Flushes once {@code saveInterval} writes are pending.
+     */
+    public void setProperty(String nodePath, String propertyName, Object propertyValue) {
+        if (closed) {
+            throw new IllegalStateException("Batch writer is closed");
+        }
+        pending.add(new Mutation(nodePath, propertyName, propertyValue));
+        if (pending.size() >= saveInterval) {
+            flush();
+        }
+    }
+
+    /**
+     * Applies and saves all pending writes.
+     */
+    public void flush() {
+        if (pending.isEmpty()) {
+            return;
+        }
+        List<Mutation> batch = new ArrayList<>(pending);
+        pending.clear();
+
+        List<Failure> batchFailures = new ArrayList<>();
+        try {
+            List<Mutation> applied = applyAll(batch, batchFailures);
+            saveBatch(applied);
+            failures.addAll(batchFailures);
+            return;
+        } catch (RepositoryException e) {
+            log.warn("Saving a batch of {} property writes failed, retrying the batch", batch.size(), e);
+            discardChanges();
+        }
+
+        batchFailures.clear();
+        try {
+            List<Mutation> applied = applyAll(batch, batchFailures);
+            saveBatch(applied);
+            failures.addAll(batchFailures);
+        } catch (RepositoryException e) {
+            log.warn("Retrying the batch of {} property writes failed, saving them one by one", batch.size(), e);
+            discardChanges();
+            saveIndividually(batch);
+        }
+    }
+
+    @Override
+    public void close() {
+        if (closed) {
+            return;
+        }
+        try {
+            flush();
+        } finally {
+            closed = true;
+            resolverPool.release(resourceResolver);
+        }
+    }
+
+    /** Number of property writes that have been saved. */
+    public long getWritten() {
+        return written;
+    }
+
+    /** Number of successful {@code session.save()} calls. */
+    public long getSaves() {
+        return saves;
+    }
+
+    public List<Failure> getFailures() {
+        return Collections.unmodifiableList(failures);
+    }
+
+    private List<Mutation> applyAll(List<Mutation> batch, List<Failure> batchFailures) {
+        List<Mutation> applied = new ArrayList<>(batch.size());
+        for (Mutation mutation : batch) {
+            try {
+                mutation.apply(session);
+                applied.add(mutation);
+            } catch (RepositoryException | RuntimeException e) {
+                batchFailures.add(new Failure(mutation.nodePath, mutation.propertyName, e.getMessage()));
+            }
+        }
+        return applied;
+    }
+
+    private void saveBatch(List<Mutation> applied) throws RepositoryException {
+        if (!applied.isEmpty()) {
+            session.save();
+            saves++;
+            written += applied.size();
+            for (Mutation mutation : applied) {
+                onSaved.accept(mutation.nodePath);
+            }
+        }
+    }
+
+    private void saveIndividually(List<Mutation> batch) {
+        for (Mutation mutation : batch) {
+            try {
+                mutation.apply(session);
+                session.save();
+                saves++;
+                written++;
+                onSaved.accept(mutation.nodePath);
+            } catch (RepositoryException | RuntimeException e) {
+                failures.add(new Failure(mutation.nodePath, mutation.propertyName, e.getMessage()));
+                discardChanges();
+            }
+        }
+    }
+
+    private void discardChanges() {
+        try {
+            session.refresh(false);
+        } catch (RepositoryException e) {
+            log.error("Could not discard pending changes", e);
+        }
+    }
+
+    private static final class Mutation {
+        private final String nodePath;
+        private final String propertyName;
+        private final Object propertyValue;
+
+        Mutation(String nodePath, String propertyName, Object propertyValue) {
+            this.nodePath = nodePath;
+            this.propertyName = propertyName;
+            this.propertyValue = propertyValue;
+        }
+
+        void apply(Session session) throws RepositoryException {
+            JcrPropertyService.applyProperty(session.getNode(nodePath), propertyName, propertyValue);
+        }
+    }
+
+    /**
+     * A property write that could not be applied or saved.
+     */
+    public static final class Failure {
+        private final String nodePath;
+        private final String propertyName;
+        private final String message;
+
+        Failure(String nodePath, String propertyName, String message) {
+            this.nodePath = nodePath;
+            this.propertyName = propertyName;
+            this.message = message;
+        }
+
+        public String getNodePath() {
+            return nodePath;
+        }
+
+        public String getPropertyName() {
+            return propertyName;
+        }
+
+        public String getMessage() {
+            return message;
+        }
+
+        @Override
+        public String toString() {
+            return nodePath + "/" + propertyName + ": " + message;
+        }
+    }
+}
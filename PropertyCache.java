@@ -0,0 +1,127 @@
+import org.apache.sling.api.resource.observation.ResourceChange;
+import org.apache.sling.api.resource.observation.ResourceChangeListener;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Read-through cache of node property maps for {@link JcrPropertyService}, bounded by entry count
+ * (least recently used out) and time to live.
+ *
+ * Registered as a {@link ResourceChangeListener} on the cached root paths: a changed node drops its
+ * own entry, an added or removed node drops its whole subtree. Writes made through the service
+ * invalidate directly, so they are visible before the observation event arrives.
+ */
+class PropertyCache implements ResourceChangeListener {
+
+    private final long ttlMillis;
+    private final String[] paths;
+
+    private final AtomicLong invalidations = new AtomicLong();
+
+    private final Map<String, Entry> entries;
+
+    PropertyCache(int maxEntries, long ttlMillis, String[] paths) {
+        this.ttlMillis = ttlMillis;
+        this.paths = paths;
+        this.entries = new LinkedHashMap<String, Entry>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+                return size() > maxEntries;
+            }
+        };
+    }
+
+    /**
+     * True if {@code nodePath} is below one of the observed paths; nodes elsewhere are never cached
+     * because nothing would invalidate them.
+     */
+    boolean isCacheable(String nodePath) {
+        for (String path : paths) {
+            if (nodePath.equals(path) || nodePath.startsWith(path.endsWith("/") ? path : path + "/")) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    Map<String, Object> get(String nodePath) {
+        Entry entry;
+        synchronized (entries) {
+            entry = entries.get(nodePath);
+            if (entry != null && entry.expiresAt < System.currentTimeMillis()) {
+                entries.remove(nodePath);
+                entry = null;
+            }
+        }
+        return entry != null ? entry.properties : null;
+    }
+
+    /**
+     * Marks the start of a repository read; pass the stamp to {@link #put} so a read that raced
+     * with an invalidation doesn't cache what it saw.
+     */
+    long stamp() {
+        return invalidations.get();
+    }
+
+    void put(String nodePath, Map<String, Object> properties, long stamp) {
+        synchronized (entries) {
+            if (invalidations.get() == stamp) {
+                entries.put(nodePath, new Entry(properties, System.currentTimeMillis() + ttlMillis));
+            }
+        }
+    }
+
+    void invalidate(String nodePath) {
+        synchronized (entries) {
+            invalidations.incrementAndGet();
+            entries.remove(nodePath);
+        }
+    }
+
+    void invalidateTree(String nodePath) {
+        String prefix = nodePath + "/";
+        synchronized (entries) {
+            invalidations.incrementAndGet();
+            Iterator<String> keys = entries.keySet().iterator();
+            while (keys.hasNext()) {
+                String key = keys.next();
+                if (key.equals(nodePath) || key.startsWith(prefix)) {
+                    keys.remove();
+                }
+            }
+        }
+    }
+
+    void clear() {
+        synchronized (entries) {
+            invalidations.incrementAndGet();
+            entries.clear();
+        }
+    }
+
+    @Override
+    public void onChange(List<ResourceChange> changes) {
+        for (ResourceChange change : changes) {
+            if (change.getType() == ResourceChange.ChangeType.CHANGED) {
+                invalidate(change.getPath());
+            } else {
+                invalidateTree(change.getPath());
+            }
+        }
+    }
+
+    private static final class Entry {
+        private final Map<String, Object> properties;
+        private final long expiresAt;
+
+        Entry(Map<String, Object> properties, long expiresAt) {
+            this.properties = properties;
+            this.expiresAt = expiresAt;
+        }
+    }
+}
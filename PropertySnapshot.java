@@ -0,0 +1,239 @@
+import javax.jcr.Node;
+import javax.jcr.Property;
+import javax.jcr.PropertyIterator;
+import javax.jcr.PropertyType;
+import javax.jcr.RepositoryException;
+import javax.jcr.Value;
+import java.math.BigDecimal;
+import java.util.Arrays;
+import java.util.Calendar;
+
+/**
+ * Read-only copy of a node's properties that keeps the native JCR types.
+ *
+ * Single values are stored as {@link String}, {@link Long}, {@link Double}, {@link Boolean},
+ * {@link Calendar} or {@link BigDecimal}; multi-values as {@code String[]}, {@code long[]},
+ * {@code double[]}, {@code boolean[]}, {@code Calendar[]} or {@code BigDecimal[]}. Binary content
+ * is never read: only its length is kept, the stream can be opened through
+ * {@link JcrPropertyService#copyBinary}. Names and values live in parallel arrays and lookups scan
+ * them, which is cheaper than a map for the property counts nodes usually have.
+ */
+public final class PropertySnapshot {
+
+    private final String path;
+    private final String[] names;
+    private final int[] types;
+    private final Object[] values;
+
+    private PropertySnapshot(String path, String[] names, int[] types, Object[] values) {
+        this.path = path;
+        this.names = names;
+        this.types = types;
+        this.values = values;
+    }
+
+    static PropertySnapshot of(Node node) throws RepositoryException {
+        PropertyIterator properties = node.getProperties();
+        long size = properties.getSize();
+        int capacity = size > 0 ? (int) size : 16;
+        String[] names = new String[capacity];
+        int[] types = new int[capacity];
+        Object[] values = new Object[capacity];
+
+        int count = 0;
+        while (properties.hasNext()) {
+            Property property = properties.nextProperty();
+            if (count == names.length) {
+                names = Arrays.copyOf(names, count * 2);
+                types = Arrays.copyOf(types, count * 2);
+                values = Arrays.copyOf(values, count * 2);
+            }
+            names[count] = property.getName();
+            types[count] = property.getType();
+            values[count] = property.isMultiple() ? readValues(property) : readValue(property);
+            count++;
+        }
+        if (count < names.length) {
+            names = Arrays.copyOf(names, count);
+            types = Arrays.copyOf(types, count);
+            values = Arrays.copyOf(values, count);
+        }
+        return new PropertySnapshot(node.getPath(), names, types, values);
+    }
+
+    private static Object readValue(Property property) throws RepositoryException {
+        switch (property.getType()) {
+            case PropertyType.BINARY:
+                return property.getLength();
+            case PropertyType.LONG:
+                return property.getLong();
+            case PropertyType.DOUBLE:
+                return property.getDouble();
+            case PropertyType.BOOLEAN:
+                return property.getBoolean();
+            case PropertyType.DATE:
+                return property.getDate();
+            case PropertyType.DECIMAL:
+                return property.getDecimal();
+            default:
+                return property.getString();
+        }
+    }
+
+    private static Object readValues(Property property) throws RepositoryException {
+        if (property.getType() == PropertyType.BINARY) {
+            return property.getLengths();
+        }
+        Value[] jcrValues = property.getValues();
+        int length = jcrValues.length;
+        switch (property.getType()) {
+            case PropertyType.LONG: {
+                long[] result = new long[length];
+                for (int i = 0; i < length; i++) {
+                    result[i] = jcrValues[i].getLong();
+                }
+                return result;
+            }
+            case PropertyType.DOUBLE: {
+                double[] result = new double[length];
+                for (int i = 0; i < length; i++) {
+                    result[i] = jcrValues[i].getDouble();
+                }
+                return result;
+            }
+            case PropertyType.BOOLEAN: {
+                boolean[] result = new boolean[length];
+                for (int i = 0; i < length; i++) {
+                    result[i] = jcrValues[i].getBoolean();
+                }
+                return result;
+            }
+            case PropertyType.DATE: {
+                Calendar[] result = new Calendar[length];
+                for (int i = 0; i < length; i++) {
+                    result[i] = jcrValues[i].getDate();
+                }
+                return result;
+            }
+            case PropertyType.DECIMAL: {
+                BigDecimal[] result = new BigDecimal[length];
+                for (int i = 0; i < length; i++) {
+                    result[i] = jcrValues[i].getDecimal();
+                }
+                return result;
+            }
+            default: {
+                String[] result = new String[length];
+                for (int i = 0; i < length; i++) {
+                    result[i] = jcrValues[i].getString();
+                }
+                return result;
+            }
+        }
+    }
+
+    public String getPath() {
+        return path;
+    }
+
+    public int size() {
+        return names.length;
+    }
+
+    public String[] getNames() {
+        return names.clone();
+    }
+
+    public boolean has(String name) {
+        return indexOf(name) >= 0;
+    }
+
+    /**
+     * @return the {@link PropertyType} of the property, or {@link PropertyType#UNDEFINED} if missing
+     */
+    public int getType(String name) {
+        int index = indexOf(name);
+        return index >= 0 ? types[index] : PropertyType.UNDEFINED;
+    }
+
+    public boolean isMultiple(String name) {
+        int index = indexOf(name);
+        return index >= 0 && values[index].getClass().isArray();
+    }
+
+    /**
+     * Raw stored value: a boxed single value, a (primitive) array for multi-values, or the length
+     * ({@code Long} / {@code long[]}) for binaries. Returned arrays are shared, don't modify them.
+     */
+    public Object get(String name) {
+        int index = indexOf(name);
+        return index >= 0 ? values[index] : null;
+    }
+
+    public String getString(String name) {
+        int index = indexOf(name);
+        if (index < 0 || types[index] == PropertyType.BINARY) {
+            return null;
+        }
+        Object value = values[index];
+        return value.getClass().isArray() ? null : value.toString();
+    }
+
+    public long getLong(String name, long defaultValue) {
+        Object value = get(name);
+        return value instanceof Long && getType(name) != PropertyType.BINARY ? (Long) value : defaultValue;
+    }
+
+    public double getDouble(String name, double defaultValue) {
+        Object value = get(name);
+        return value instanceof Double ? (Double) value : defaultValue;
+    }
+
+    public boolean getBoolean(String name, boolean defaultValue) {
+        Object value = get(name);
+        return value instanceof Boolean ? (Boolean) value : defaultValue;
+    }
+
+    public Calendar getDate(String name) {
+        Object value = get(name);
+        return value instanceof Calendar ? (Calendar) value : null;
+    }
+
+    public String[] getStrings(String name) {
+        Object value = get(name);
+        return value instanceof String[] ? (String[]) value : null;
+    }
+
+    public long[] getLongs(String name) {
+        Object value = get(name);
+        return value instanceof long[] && getType(name) != PropertyType.BINARY ? (long[]) value : null;
+    }
+
+    public double[] getDoubles(String name) {
+        Object value = get(name);
+        return value instanceof double[] ? (double[]) value : null;
+    }
+
+    public boolean[] getBooleans(String name) {
+        Object value = get(name);
+        return value instanceof boolean[] ? (boolean[]) value : null;
+    }
+
+    /**
+     * @return the size in bytes of a single-valued binary property, or -1 if it is not one
+     */
+    public long getBinaryLength(String name) {
+        int index = indexOf(name);
+        return index >= 0 && types[index] == PropertyType.BINARY && values[index] instanceof Long
+                ? (Long) values[index] : -1;
+    }
+
+    private int indexOf(String name) {
+        for (int i = 0; i < names.length; i++) {
+            if (names[i].equals(name)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+}
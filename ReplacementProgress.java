@@ -0,0 +1,116 @@
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Live counters of a {@link BulkStringReplacer} run. Safe to read from another thread while the
+ * run is going, e.g. from a status servlet.
+ */
+public class ReplacementProgress {
+
+    private final long startTime = System.currentTimeMillis();
+    private volatile long endTime;
+    private volatile long expectedNodes = -1;
+
+    private final AtomicLong nodesVisited = new AtomicLong();
+    private final AtomicLong nodesChanged = new AtomicLong();
+    private final AtomicLong propertiesChanged = new AtomicLong();
+    private final AtomicLong saves = new AtomicLong();
+    private final AtomicLong failures = new AtomicLong();
+    private final AtomicLong lastLoggedAt = new AtomicLong();
+
+    void nodeVisited() {
+        nodesVisited.incrementAndGet();
+    }
+
+    void nodeChanged(int properties) {
+        nodesChanged.incrementAndGet();
+        propertiesChanged.addAndGet(properties);
+    }
+
+    void saved() {
+        saves.incrementAndGet();
+    }
+
+    void failed() {
+        failures.incrementAndGet();
+    }
+
+    /**
+     * True for exactly one caller each time the visited count passes another multiple of
+     * {@code interval}, however many workers share this progress.
+     */
+    boolean claimLogMark(long interval) {
+        long visited = nodesVisited.get();
+        long mark = lastLoggedAt.get();
+        return visited >= mark + interval && lastLoggedAt.compareAndSet(mark, visited - visited % interval);
+    }
+
+    void setExpectedNodes(long expectedNodes) {
+        this.expectedNodes = expectedNodes;
+    }
+
+    void finish() {
+        endTime = System.currentTimeMillis();
+    }
+
+    public long getNodesVisited() {
+        return nodesVisited.get();
+    }
+
+    public long getNodesChanged() {
+        return nodesChanged.get();
+    }
+
+    public long getPropertiesChanged() {
+        return propertiesChanged.get();
+    }
+
+    public long getSaves() {
+        return saves.get();
+    }
+
+    public long getFailures() {
+        return failures.get();
+    }
+
+    /** Total nodes the run is expected to visit, or -1 if unknown. */
+    public long getExpectedNodes() {
+        return expectedNodes;
+    }
+
+    public boolean isFinished() {
+        return endTime > 0;
+    }
+
+    public long getElapsedMillis() {
+        return (endTime > 0 ? endTime : System.currentTimeMillis()) - startTime;
+    }
+
+    public double getNodesPerSecond() {
+        long elapsed = getElapsedMillis();
+        return elapsed > 0 ? nodesVisited.get() * 1000.0 / elapsed : 0;
+    }
+
+    /** Estimated time until all expected nodes are visited, or -1 if it can't be estimated. */
+    public long getEstimatedRemainingMillis() {
+        if (isFinished()) {
+            return 0;
+        }
+        double rate = getNodesPerSecond();
+        long remaining = expectedNodes - nodesVisited.get();
+        if (expectedNodes < 0 || rate <= 0) {
+            return -1;
+        }
+        return Math.max(0, (long) (remaining / rate * 1000));
+    }
+
+    @Override
+    public String toString() {
+        long eta = getEstimatedRemainingMillis();
+        return String.format("visited=%d%s, changedNodes=%d, changedProperties=%d, saves=%d, failures=%d, "
+                        + "%.1f nodes/sec, elapsed=%ds%s",
+                nodesVisited.get(), expectedNodes >= 0 ? "/" + expectedNodes : "",
+                nodesChanged.get(), propertiesChanged.get(), saves.get(), failures.get(),
+                getNodesPerSecond(), getElapsedMillis() / 1000,
+                eta >= 0 ? ", eta=" + eta / 1000 + "s" : "");
+    }
+}
@@ -0,0 +1,109 @@
+import java.io.IOException;
+import java.io.Writer;
+
+/**
+ * Streams one line per changed (or, in dry-run, would-be-changed) property to a writer, as CSV or
+ * JSON lines, instead of logging whole values. A node whose changes could not be saved gets an
+ * additional error line. Lines are written as properties are processed, so
+ * nothing accumulates in memory. Thread-safe, parallel workers can share one report.
+ */
+public abstract class ReplacementReport implements AutoCloseable {
+
+    private final Writer writer;
+    private IOException failure;
+
+    private ReplacementReport(Writer writer) {
+        this.writer = writer;
+    }
+
+    /** {@code path,property,matches,error} with a header line; error is only set on failure lines. */
+    public static ReplacementReport csv(Writer writer) throws IOException {
+        ReplacementReport report = new ReplacementReport(writer) {
+            @Override
+            String format(String path, String propertyName, int matches) {
+                return csvField(path) + ',' + csvField(propertyName) + ',' + matches + ',';
+            }
+
+            @Override
+            String formatFailure(String path, String message) {
+                return csvField(path) + ",,," + csvField(message);
+            }
+        };
+        writer.write("path,property,matches,error\n");
+        return report;
+    }
+
+    /**
+     * {@code {"path":"...","property":"...","matches":n}} per line, or {@code {"path":"...","error":"..."}}
+     * for a node that failed to save.
+     */
+    public static ReplacementReport jsonLines(Writer writer) {
+        return new ReplacementReport(writer) {
+            @Override
+            String format(String path, String propertyName, int matches) {
+                return "{\"path\":\"" + escapeJson(path) + "\",\"property\":\"" + escapeJson(propertyName)
+                        + "\",\"matches\":" + matches + "}";
+            }
+
+            @Override
+            String formatFailure(String path, String message) {
+                return "{\"path\":\"" + escapeJson(path) + "\",\"error\":\"" + escapeJson(message) + "\"}";
+            }
+        };
+    }
+
+    abstract String format(String path, String propertyName, int matches);
+
+    abstract String formatFailure(String path, String message);
+
+    /**
+     * Writes one line. A write error is kept and rethrown from {@link #close()} so a broken report
+     * doesn't abort the replacement run.
+     */
+    public synchronized void record(String path, String propertyName, int matches) {
+        writeLine(format(path, propertyName, matches));
+    }
+
+    /**
+     * Records that the changes to the node at {@code path} were discarded because they could not be
+     * saved. The node's property lines have already been written by then.
+     */
+    public synchronized void recordFailure(String path, String message) {
+        writeLine(formatFailure(path, message != null ? message : ""));
+    }
+
+    private void writeLine(String line) {
+        if (failure != null) {
+            return;
+        }
+        try {
+            writer.write(line);
+            writer.write('\n');
+        } catch (IOException e) {
+            failure = e;
+        }
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        writer.flush();
+        if (failure != null) {
+            throw failure;
+        }
+    }
+
+    private static String csvField(String value) {
+        if (value.indexOf(',') < 0 && value.indexOf('"') < 0 && value.indexOf('\n') < 0) {
+            return value;
+        }
+        return '"' + value.replace("\"", "\"\"") + '"';
+    }
+
+    private static String escapeJson(String value) {
+        return value.replace("\\", "\\\\")
+                .replace("\"", "\\\"")
+                .replace("\n", "\\n")
+                .replace("\r", "\\r")
+                .replace("\t", "\\t");
+    }
+}
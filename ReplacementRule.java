@@ -0,0 +1,61 @@
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * One search/replace pair for {@link BulkStringReplacer}, limited to the given property names
+ * like {@link NodePropertyStringReplacer#replaceStringInMultipleProperties}, or applied to every
+ * String property when no names are given.
+ */
+public class ReplacementRule implements StringReplacement {
+
+    private final Set<String> propertyNames;
+    private final String searchString;
+    private final String replaceString;
+
+    public ReplacementRule(String[] propertyNames, String searchString, String replaceString) {
+        if (searchString == null || searchString.isEmpty()) {
+            throw new IllegalArgumentException("Search string must not be empty");
+        }
+        this.propertyNames = propertyNames == null
+                ? null
+                : Collections.unmodifiableSet(new HashSet<>(Arrays.asList(propertyNames)));
+        this.searchString = searchString;
+        this.replaceString = replaceString == null ? "" : replaceString;
+    }
+
+    @Override
+    public boolean appliesTo(String propertyName) {
+        return propertyNames == null || propertyNames.contains(propertyName);
+    }
+
+    @Override
+    public Set<String> getPropertyNames() {
+        return propertyNames;
+    }
+
+    public String getSearchString() {
+        return searchString;
+    }
+
+    public String getReplaceString() {
+        return replaceString;
+    }
+
+    @Override
+    public String apply(String value) {
+        return value.contains(searchString) ? value.replace(searchString, replaceString) : value;
+    }
+
+    @Override
+    public int countMatches(String value) {
+        int count = 0;
+        int index = value.indexOf(searchString);
+        while (index >= 0) {
+            count++;
+            index = value.indexOf(searchString, index + searchString.length());
+        }
+        return count;
+    }
+}
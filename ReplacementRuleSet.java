@@ -0,0 +1,285 @@
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.TreeMap;
+
+/**
+ * A whole dictionary of search/replace pairs compiled once into an Aho-Corasick automaton, so each
+ * value is rewritten in a single scan no matter how many pairs there are.
+ *
+ * Matches are replaced leftmost first and, at the same position, longest first; replaced text is
+ * not scanned again. This differs from running the pairs one after another, where an earlier
+ * replacement can create or destroy matches for a later one. Case-insensitive pairs match with
+ * per-character case folding. Immutable and safe to share between threads once built.
+ */
+public class ReplacementRuleSet implements StringReplacement {
+
+    private final Set<String> propertyNames;
+
+    private final String[] patterns;
+    private final String[] replacements;
+    private final boolean[] ignoreCase;
+
+    // automaton, one entry per trie node; node 0 is the root
+    private final char[][] edgeChars;
+    private final int[][] edgeTargets;
+    private final int[] failure;
+    private final int[][] outputs;
+
+    private ReplacementRuleSet(Set<String> propertyNames, List<Pair> pairs) {
+        this.propertyNames = propertyNames;
+        int count = pairs.size();
+        patterns = new String[count];
+        replacements = new String[count];
+        ignoreCase = new boolean[count];
+        for (int i = 0; i < count; i++) {
+            Pair pair = pairs.get(i);
+            patterns[i] = pair.search;
+            replacements[i] = pair.replace;
+            ignoreCase[i] = pair.ignoreCase;
+        }
+
+        // build the trie over case-folded patterns; case-sensitive matches are verified on output
+        List<TreeMap<Character, Integer>> trie = new ArrayList<>();
+        List<List<Integer>> nodeOutputs = new ArrayList<>();
+        trie.add(new TreeMap<>());
+        nodeOutputs.add(new ArrayList<>());
+        for (int i = 0; i < count; i++) {
+            int state = 0;
+            for (int j = 0; j < patterns[i].length(); j++) {
+                char c = fold(patterns[i].charAt(j));
+                Integer next = trie.get(state).get(c);
+                if (next == null) {
+                    next = trie.size();
+                    trie.add(new TreeMap<>());
+                    nodeOutputs.add(new ArrayList<>());
+                    trie.get(state).put(c, next);
+                }
+                state = next;
+            }
+            nodeOutputs.get(state).add(i);
+        }
+
+        int size = trie.size();
+        edgeChars = new char[size][];
+        edgeTargets = new int[size][];
+        for (int node = 0; node < size; node++) {
+            TreeMap<Character, Integer> edges = trie.get(node);
+            edgeChars[node] = new char[edges.size()];
+            edgeTargets[node] = new int[edges.size()];
+            int k = 0;
+            for (Map.Entry<Character, Integer> edge : edges.entrySet()) {
+                edgeChars[node][k] = edge.getKey();
+                edgeTargets[node][k] = edge.getValue();
+                k++;
+            }
+        }
+
+        // failure links breadth first, merging the outputs of each node's failure target
+        failure = new int[size];
+        outputs = new int[size][];
+        outputs[0] = toArray(nodeOutputs.get(0));
+        Queue<Integer> queue = new ArrayDeque<>();
+        for (int target : edgeTargets[0]) {
+            failure[target] = 0;
+            outputs[target] = toArray(nodeOutputs.get(target));
+            queue.add(target);
+        }
+        while (!queue.isEmpty()) {
+            int node = queue.poll();
+            for (int k = 0; k < edgeChars[node].length; k++) {
+                char c = edgeChars[node][k];
+                int child = edgeTargets[node][k];
+                int fallback = failure[node];
+                while (fallback != 0 && next(fallback, c) < 0) {
+                    fallback = failure[fallback];
+                }
+                int target = next(fallback, c);
+                failure[child] = target >= 0 && target != child ? target : 0;
+                List<Integer> merged = new ArrayList<>(nodeOutputs.get(child));
+                for (int output : outputs[failure[child]]) {
+                    merged.add(output);
+                }
+                outputs[child] = toArray(merged);
+                queue.add(child);
+            }
+        }
+    }
+
+    @Override
+    public Set<String> getPropertyNames() {
+        return propertyNames;
+    }
+
+    @Override
+    public boolean appliesTo(String propertyName) {
+        return propertyNames == null || propertyNames.contains(propertyName);
+    }
+
+    public int size() {
+        return patterns.length;
+    }
+
+    @Override
+    public String apply(String value) {
+        int[][] matches = scan(value);
+        if (matches == null) {
+            return value;
+        }
+        int[] matchLength = matches[0];
+        int[] matchPattern = matches[1];
+
+        int length = value.length();
+        StringBuilder result = new StringBuilder(length);
+        int i = 0;
+        while (i < length) {
+            if (matchLength[i] > 0) {
+                result.append(replacements[matchPattern[i]]);
+                i += matchLength[i];
+            } else {
+                result.append(value.charAt(i));
+                i++;
+            }
+        }
+        return result.toString();
+    }
+
+    @Override
+    public int countMatches(String value) {
+        int[][] matches = scan(value);
+        if (matches == null) {
+            return 0;
+        }
+        int[] matchLength = matches[0];
+        int count = 0;
+        int i = 0;
+        while (i < matchLength.length) {
+            if (matchLength[i] > 0) {
+                count++;
+                i += matchLength[i];
+            } else {
+                i++;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Runs the automaton over {@code value} and keeps the best match per start position.
+     *
+     * @return match length and pattern index per start position, or null if nothing matched
+     */
+    private int[][] scan(String value) {
+        int length = value.length();
+        int[] matchLength = null;
+        int[] matchPattern = null;
+
+        int state = 0;
+        for (int i = 0; i < length; i++) {
+            char c = fold(value.charAt(i));
+            int target = next(state, c);
+            while (target < 0 && state != 0) {
+                state = failure[state];
+                target = next(state, c);
+            }
+            state = target < 0 ? 0 : target;
+
+            for (int pattern : outputs[state]) {
+                int patternLength = patterns[pattern].length();
+                int start = i - patternLength + 1;
+                if (!ignoreCase[pattern] && !value.regionMatches(start, patterns[pattern], 0, patternLength)) {
+                    continue;
+                }
+                if (matchLength == null) {
+                    matchLength = new int[length];
+                    matchPattern = new int[length];
+                }
+                // longest match per start wins, the earlier pair on a tie
+                if (patternLength > matchLength[start]
+                        || (patternLength == matchLength[start] && pattern < matchPattern[start])) {
+                    matchLength[start] = patternLength;
+                    matchPattern[start] = pattern;
+                }
+            }
+        }
+        return matchLength == null ? null : new int[][] {matchLength, matchPattern};
+    }
+
+    private int next(int state, char c) {
+        int index = Arrays.binarySearch(edgeChars[state], c);
+        return index >= 0 ? edgeTargets[state][index] : -1;
+    }
+
+    private static char fold(char c) {
+        return Character.toLowerCase(Character.toUpperCase(c));
+    }
+
+    private static int[] toArray(List<Integer> values) {
+        int[] result = new int[values.size()];
+        for (int i = 0; i < result.length; i++) {
+            result[i] = values.get(i);
+        }
+        return result;
+    }
+
+    /**
+     * Collects search/replace pairs and compiles them into a {@link ReplacementRuleSet}.
+     */
+    public static class Builder {
+        private final Map<String, Pair> pairs = new LinkedHashMap<>();
+        private Set<String> propertyNames;
+
+        /** Limits the rule set to these properties; by default it applies to all String properties. */
+        public Builder propertyNames(String... names) {
+            this.propertyNames = names == null ? null : Collections.unmodifiableSet(new HashSet<>(Arrays.asList(names)));
+            return this;
+        }
+
+        public Builder add(String searchString, String replaceString) {
+            return add(searchString, replaceString, false);
+        }
+
+        public Builder addIgnoreCase(String searchString, String replaceString) {
+            return add(searchString, replaceString, true);
+        }
+
+        public Builder addAll(Map<String, String> replacements, boolean ignoreCase) {
+            for (Map.Entry<String, String> entry : replacements.entrySet()) {
+                add(entry.getKey(), entry.getValue(), ignoreCase);
+            }
+            return this;
+        }
+
+        private Builder add(String searchString, String replaceString, boolean ignoreCase) {
+            if (searchString == null || searchString.isEmpty()) {
+                throw new IllegalArgumentException("Search string must not be empty");
+            }
+            pairs.put((ignoreCase ? "i:" : "s:") + searchString,
+                    new Pair(searchString, replaceString == null ? "" : replaceString, ignoreCase));
+            return this;
+        }
+
+        public ReplacementRuleSet build() {
+            return new ReplacementRuleSet(propertyNames, new ArrayList<>(pairs.values()));
+        }
+    }
+
+    private static final class Pair {
+        private final String search;
+        private final String replace;
+        private final boolean ignoreCase;
+
+        Pair(String search, String replace, boolean ignoreCase) {
+            this.search = search;
+            this.replace = replace;
+            this.ignoreCase = ignoreCase;
+        }
+    }
+}
@@ -0,0 +1,257 @@
+import org.apache.sling.api.resource.LoginException;
+import org.apache.sling.api.resource.ResourceResolver;
+import org.apache.sling.api.resource.ResourceResolverFactory;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Iterator;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Bounded pool of service resource resolvers, so frequent repository calls don't pay a login and
+ * logout each time.
+ *
+ * A borrowed resolver belongs to one caller until it is released. Resolvers are refreshed on
+ * borrow so callers see the latest persisted state, and released resolvers have unsaved changes
+ * reverted before they go back into the pool. Closing the pool also closes resolvers that are
+ * still borrowed; releasing a resolver after that just closes it.
+ */
+class ServiceResolverPool {
+
+    private static final Logger log = LoggerFactory.getLogger(ServiceResolverPool.class);
+
+    private final ResourceResolverFactory resolverFactory;
+    private final long borrowTimeoutMillis;
+    private final long maxIdleMillis;
+
+    private final Semaphore permits;
+    private final ConcurrentLinkedDeque<IdleResolver> idle = new ConcurrentLinkedDeque<>();
+    private final Set<ResourceResolver> borrowed = ConcurrentHashMap.newKeySet();
+    private volatile boolean closed;
+
+    private final AtomicInteger active = new AtomicInteger();
+    private final AtomicLong created = new AtomicLong();
+    private final AtomicLong borrows = new AtomicLong();
+    private final AtomicLong waits = new AtomicLong();
+    private final AtomicLong borrowNanos = new AtomicLong();
+    private final AtomicLong maxBorrowNanos = new AtomicLong();
+
+    ServiceResolverPool(ResourceResolverFactory resolverFactory, int maxSize, long borrowTimeoutMillis, long maxIdleMillis) {
+        this.resolverFactory = resolverFactory;
+        this.borrowTimeoutMillis = borrowTimeoutMillis;
+        this.maxIdleMillis = maxIdleMillis;
+        this.permits = new Semaphore(maxSize, true);
+    }
+
+    /**
+     * Takes a live, refreshed resolver from the pool or opens a new one, waiting up to the borrow
+     * timeout when all resolvers are in use. Every borrowed resolver must be passed to {@link #release}.
+     */
+    ResourceResolver borrow() throws LoginException {
+        long start = System.nanoTime();
+        checkOpen();
+        acquirePermit();
+        try {
+            ResourceResolver resourceResolver = takeIdle();
+            if (resourceResolver == null) {
+                resourceResolver = resolverFactory.getServiceResourceResolver(null);
+                created.incrementAndGet();
+            }
+            borrowed.add(resourceResolver);
+            if (closed) {
+                // close() ran while this resolver was being handed out and may have missed it
+                borrowed.remove(resourceResolver);
+                resourceResolver.close();
+                checkOpen();
+            }
+            active.incrementAndGet();
+            recordBorrow(System.nanoTime() - start);
+            return resourceResolver;
+        } catch (LoginException | RuntimeException e) {
+            permits.release();
+            throw e;
+        }
+    }
+
+    void release(ResourceResolver resourceResolver) {
+        if (resourceResolver == null || !borrowed.remove(resourceResolver)) {
+            return;
+        }
+        active.decrementAndGet();
+        try {
+            if (closed) {
+                resourceResolver.close();
+            } else if (resourceResolver.isLive()) {
+                if (resourceResolver.hasChanges()) {
+                    resourceResolver.revert();
+                }
+                idle.addFirst(new IdleResolver(resourceResolver, System.currentTimeMillis()));
+                if (closed) {
+                    closeIdle();
+                }
+            }
+        } catch (RuntimeException e) {
+            log.warn("Discarding pooled resolver that could not be reset", e);
+            resourceResolver.close();
+        } finally {
+            permits.release();
+        }
+    }
+
+    /**
+     * Closes resolvers that have been idle for longer than the configured idle time.
+     */
+    void evictIdle() {
+        long cutoff = System.currentTimeMillis() - maxIdleMillis;
+        Iterator<IdleResolver> iterator = idle.descendingIterator();
+        while (iterator.hasNext()) {
+            IdleResolver candidate = iterator.next();
+            if (candidate.idleSince < cutoff && idle.removeFirstOccurrence(candidate)) {
+                candidate.resourceResolver.close();
+            }
+        }
+    }
+
+    /**
+     * Closes idle resolvers and any that are still borrowed. Borrowing from a closed pool fails.
+     */
+    void close() {
+        closed = true;
+        closeIdle();
+        Iterator<ResourceResolver> iterator = borrowed.iterator();
+        while (iterator.hasNext()) {
+            ResourceResolver resourceResolver = iterator.next();
+            iterator.remove();
+            active.decrementAndGet();
+            log.warn("Closing service resolver that was not released before the pool closed");
+            resourceResolver.close();
+        }
+    }
+
+    Stats getStats() {
+        long borrowCount = borrows.get();
+        return new Stats(active.get(), idle.size(), created.get(), borrowCount, waits.get(),
+                borrowCount > 0 ? borrowNanos.get() / borrowCount / 1000 : 0,
+                maxBorrowNanos.get() / 1000);
+    }
+
+    private void closeIdle() {
+        IdleResolver candidate;
+        while ((candidate = idle.pollFirst()) != null) {
+            candidate.resourceResolver.close();
+        }
+    }
+
+    private void checkOpen() throws LoginException {
+        if (closed) {
+            throw new LoginException("Service resolver pool is closed");
+        }
+    }
+
+    private void acquirePermit() throws LoginException {
+        if (permits.tryAcquire()) {
+            return;
+        }
+        waits.incrementAndGet();
+        try {
+            if (!permits.tryAcquire(borrowTimeoutMillis, TimeUnit.MILLISECONDS)) {
+                throw new LoginException("Timed out after " + borrowTimeoutMillis + " ms waiting for a pooled service resolver");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new LoginException("Interrupted while waiting for a pooled service resolver", e);
+        }
+    }
+
+    private ResourceResolver takeIdle() {
+        IdleResolver candidate;
+        while ((candidate = idle.pollFirst()) != null) {
+            ResourceResolver resourceResolver = candidate.resourceResolver;
+            if (resourceResolver.isLive()) {
+                resourceResolver.refresh();
+                return resourceResolver;
+            }
+            resourceResolver.close();
+        }
+        return null;
+    }
+
+    private void recordBorrow(long nanos) {
+        borrows.incrementAndGet();
+        borrowNanos.addAndGet(nanos);
+        maxBorrowNanos.accumulateAndGet(nanos, Math::max);
+    }
+
+    private static final class IdleResolver {
+        private final ResourceResolver resourceResolver;
+        private final long idleSince;
+
+        IdleResolver(ResourceResolver resourceResolver, long idleSince) {
+            this.resourceResolver = resourceResolver;
+            this.idleSince = idleSince;
+        }
+    }
+
+    /**
+     * Point-in-time pool metrics. Borrow latencies are in microseconds.
+     */
+    public static final class Stats {
+        private final int active;
+        private final int idle;
+        private final long created;
+        private final long borrows;
+        private final long waits;
+        private final long averageBorrowMicros;
+        private final long maxBorrowMicros;
+
+        Stats(int active, int idle, long created, long borrows, long waits, long averageBorrowMicros, long maxBorrowMicros) {
+            this.active = active;
+            this.idle = idle;
+            this.created = created;
+            this.borrows = borrows;
+            this.waits = waits;
+            this.averageBorrowMicros = averageBorrowMicros;
+            this.maxBorrowMicros = maxBorrowMicros;
+        }
+
+        public int getActive() {
+            return active;
+        }
+
+        public int getIdle() {
+            return idle;
+        }
+
+        public long getCreated() {
+            return created;
+        }
+
+        public long getBorrows() {
+            return borrows;
+        }
+
+        public long getWaits() {
+            return waits;
+        }
+
+        public long getAverageBorrowMicros() {
+            return averageBorrowMicros;
+        }
+
+        public long getMaxBorrowMicros() {
+            return maxBorrowMicros;
+        }
+
+        @Override
+        public String toString() {
+            return "active=" + active + ", idle=" + idle + ", created=" + created + ", borrows=" + borrows
+                    + ", waits=" + waits + ", avgBorrowMicros=" + averageBorrowMicros + ", maxBorrowMicros=" + maxBorrowMicros;
+        }
+    }
+}
@@ -7,6 +7,7 @@ import org.apache.sling.api.resource.ResourceResolver;
 import org.apache.sling.models.annotations.Default;
 import org.apache.sling.models.annotations.Model;
 import org.apache.sling.models.annotations.injectorspecific.InjectionStrategy;
+import org.apache.sling.models.annotations.injectorspecific.OSGiService;
 import org.apache.sling.models.annotations.injectorspecific.SlingObject;
 import org.apache.sling.models.annotations.injectorspecific.ValueMapValue;
 import org.slf4j.Logger;
@@ -16,6 +17,7 @@ import javax.annotation.PostConstruct;
 import java.util.Collections;
 import java.util.Iterator;
 import java.util.List;
+import java.util.function.Predicate;
 import java.util.stream.Collectors;
 import java.util.stream.StreamSupport;
 
@@ -28,9 +30,25 @@ public class SiteMapModel {
     @Default(values = "/content/wknd")
     protected String rootContentPath;
 
+    /** Number of levels to render below the root; 0 renders the whole tree. */
+    @ValueMapValue(injectionStrategy = InjectionStrategy.OPTIONAL)
+    @Default(intValues = 0)
+    protected int maxDepth;
+
+    /** Builds the tree from one query over all pages instead of walking listChildren(). */
+    @ValueMapValue(injectionStrategy = InjectionStrategy.OPTIONAL)
+    @Default(booleanValues = false)
+    protected boolean useQueryBuilder;
+
     @SlingObject
     private ResourceResolver resourceResolver;
 
+    @OSGiService(injectionStrategy = InjectionStrategy.OPTIONAL)
+    private SitemapCache sitemapCache;
+
+    @OSGiService(injectionStrategy = InjectionStrategy.OPTIONAL)
+    private SitemapFragmentCache fragmentCache;
+
     private List<SitemapPageHierarchy> siteMap;
 
     @PostConstruct
@@ -40,6 +58,11 @@ public class SiteMapModel {
             return;
         }
 
+        if (sitemapCache != null) {
+            siteMap = SitemapPageHierarchy.limitDepth(sitemapCache.getSiteMap(rootContentPath, useQueryBuilder), maxDepth);
+            return;
+        }
+
         PageManager pageManager = resourceResolver.adaptTo(PageManager.class);
         if (pageManager == null) {
             LOGGER.error("PageManager is null. Cannot fetch the site map.");
@@ -52,10 +75,34 @@ public class SiteMapModel {
             return;
         }
 
-        siteMap = buildSiteMap(rootPage);
+        if (useQueryBuilder) {
+            siteMap = SitemapPageHierarchy.limitDepth(
+                    SitemapQueryBuilder.buildSiteMap(resourceResolver, rootContentPath), maxDepth);
+            return;
+        }
+
+        siteMap = buildSiteMap(rootPage, maxDepth);
     }
 
-    private List<SitemapPageHierarchy> buildSiteMap(Page rootPage) {
+    /**
+     * Lazy variant used when rendering straight from the request resolver: each node lists its
+     * children only when HTL first asks for them, and nodes on the last level never do.
+     */
+    static List<SitemapPageHierarchy> buildSiteMap(Page rootPage, int maxDepth) {
+
+        if (rootPage != null) {
+            Iterator<Page> childIterator = rootPage.listChildren();
+            return StreamSupport.stream(((Iterable<Page>) () -> childIterator).spliterator(), false)
+                    .filter(child -> !isPageExcluded(child))
+                    .map(child -> maxDepth == 1
+                            ? new SitemapPageHierarchy(child, Collections.<SitemapPageHierarchy>emptyList())
+                            : new SitemapPageHierarchy(child, () -> buildSiteMap(child, maxDepth - 1)))
+                    .collect(Collectors.toList());
+        }
+        return Collections.emptyList();
+    }
+
+    static List<SitemapPageHierarchy> buildSiteMap(Page rootPage) {
 
         if (rootPage != null) {
             Iterator<Page> childIterator = rootPage.listChildren();
@@ -67,8 +114,27 @@ public class SiteMapModel {
         return Collections.emptyList();
     }
 
+    /**
+     * Walks the pages the sitemap would show below {@code rootPage}, depth first and in document
+     * order, without building a tree. Stops as soon as {@code visitor} returns false.
+     *
+     * @return false if the walk was stopped by the visitor
+     */
+    public static boolean visitSiteMap(Page rootPage, Predicate<Page> visitor) {
+        Iterator<Page> childIterator = rootPage.listChildren();
+        while (childIterator.hasNext()) {
+            Page child = childIterator.next();
+            if (isPageExcluded(child)) {
+                continue;
+            }
+            if (!visitor.test(child) || !visitSiteMap(child, visitor)) {
+                return false;
+            }
+        }
+        return true;
+    }
 
-    private boolean isPageExcluded(Page page) {
+    public static boolean isPageExcluded(Page page) {
         if (page == null) return true;
 
         return page.getProperties().get("hideInSitemap", false);
@@ -78,4 +144,15 @@ public class SiteMapModel {
     public List<SitemapPageHierarchy> getSiteMap() {
         return siteMap;
     }
+
+    /**
+     * Pre-rendered sitemap markup for this component's settings, or null when the fragment cache
+     * is not available and the template has to render {@link #getSiteMap()} itself.
+     */
+    public SitemapFragmentCache.Fragment getFragment() {
+        if (fragmentCache == null || rootContentPath == null || rootContentPath.isEmpty()) {
+            return null;
+        }
+        return fragmentCache.getFragment(rootContentPath, maxDepth, useQueryBuilder);
+    }
 }
@@ -0,0 +1,349 @@
+package com.adobe.aem.guides.wknd.core.models;
+
+import com.day.cq.wcm.api.Page;
+import com.day.cq.wcm.api.PageManager;
+import org.apache.sling.api.resource.LoginException;
+import org.apache.sling.api.resource.ResourceResolver;
+import org.apache.sling.api.resource.ResourceResolverFactory;
+import org.apache.sling.api.resource.observation.ResourceChange;
+import org.apache.sling.api.resource.observation.ResourceChangeListener;
+import org.osgi.service.component.annotations.Activate;
+import org.osgi.service.component.annotations.Component;
+import org.osgi.service.component.annotations.Deactivate;
+import org.osgi.service.component.annotations.Modified;
+import org.osgi.service.component.annotations.Reference;
+import org.osgi.service.metatype.annotations.AttributeDefinition;
+import org.osgi.service.metatype.annotations.Designate;
+import org.osgi.service.metatype.annotations.ObjectClassDefinition;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Shared sitemap trees keyed by root content path.
+ *
+ * A tree is built once with a service resolver and handed out as-is until a page below its
+ * root is created, moved, deleted or has its page content changed (e.g. {@code hideInSitemap}).
+ * Changes only mark the affected page paths; the next read re-lists the children along those
+ * paths and reuses every untouched subtree of the previous tree.
+ *
+ * At most the configured number of trees are kept, least recently used first out. Request driven
+ * callers should only ask for the configured {@link #isSitemapRoot sitemap roots}.
+ */
+@Component(service = {SitemapCache.class, ResourceChangeListener.class}, property = {
+        ResourceChangeListener.PATHS + "=/content",
+        ResourceChangeListener.CHANGES + "=ADDED",
+        ResourceChangeListener.CHANGES + "=REMOVED",
+        ResourceChangeListener.CHANGES + "=CHANGED"
+})
+@Designate(ocd = SitemapCache.Config.class)
+public class SitemapCache implements ResourceChangeListener {
+
+    @ObjectClassDefinition(name = "WKND Sitemap Cache")
+    public @interface Config {
+
+        @AttributeDefinition(name = "Sitemap roots", description = "Root pages whose sitemap.xml is served from the cache. Other pages are walked per request.")
+        String[] sitemap_roots() default {"/content/wknd"};
+
+        @AttributeDefinition(name = "Max cached trees")
+        int max_entries() default 50;
+    }
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(SitemapCache.class);
+
+    private static final String JCR_CONTENT = "/jcr:content";
+
+    @Reference
+    private ResourceResolverFactory resolverFactory;
+
+    private volatile Set<String> sitemapRoots = Collections.emptySet();
+
+    private volatile int maxEntries;
+
+    private final Map<String, CachedSitemap> sitemaps = new LinkedHashMap<String, CachedSitemap>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, CachedSitemap> eldest) {
+            return size() > maxEntries;
+        }
+    };
+
+    @Activate
+    @Modified
+    protected void activate(Config config) {
+        Set<String> roots = new HashSet<>();
+        for (String root : config.sitemap_roots()) {
+            roots.add(root.trim());
+        }
+        sitemapRoots = Collections.unmodifiableSet(roots);
+        maxEntries = Math.max(1, config.max_entries());
+        synchronized (sitemaps) {
+            sitemaps.clear();
+        }
+    }
+
+    /**
+     * True if {@code rootPath} is a configured sitemap root whose tree may be cached for
+     * {@code sitemap.xml} requests.
+     */
+    public boolean isSitemapRoot(String rootPath) {
+        return sitemapRoots.contains(rootPath);
+    }
+
+    /**
+     * Returns the top level sitemap entries below {@code rootContentPath}, building the tree on
+     * first access and applying pending changes if the tree was invalidated since the last read.
+     */
+    public List<SitemapPageHierarchy> getSiteMap(String rootContentPath) {
+        return getSiteMap(rootContentPath, false);
+    }
+
+    /**
+     * Same as {@link #getSiteMap(String)}; {@code useQueryBuilder} selects {@link SitemapQueryBuilder}
+     * for the initial build. Each mode has its own cached tree, so both can be compared on a warm
+     * cache. Incremental refreshes always re-list children along the changed paths.
+     */
+    public List<SitemapPageHierarchy> getSiteMap(String rootContentPath, boolean useQueryBuilder) {
+        return getSnapshot(rootContentPath, useQueryBuilder).getSiteMap();
+    }
+
+    /**
+     * Returns the current tree below {@code rootContentPath} together with its version, which
+     * changes every time the tree is rebuilt or refreshed.
+     */
+    public Snapshot getSnapshot(String rootContentPath, boolean useQueryBuilder) {
+        CachedSitemap sitemap;
+        synchronized (sitemaps) {
+            sitemap = sitemaps.computeIfAbsent(rootContentPath + '|' + useQueryBuilder,
+                    key -> new CachedSitemap(rootContentPath, useQueryBuilder));
+        }
+        // built outside the lock, every tree builds on its own monitor
+        return sitemap.get();
+    }
+
+    @Override
+    public void onChange(List<ResourceChange> changes) {
+        List<CachedSitemap> cached;
+        synchronized (sitemaps) {
+            cached = new ArrayList<>(sitemaps.values());
+        }
+        for (ResourceChange change : changes) {
+            String pagePath = toPagePath(change.getPath());
+            if (pagePath == null) {
+                continue;
+            }
+            for (CachedSitemap sitemap : cached) {
+                if (isSameOrDescendant(pagePath, sitemap.rootPath)) {
+                    sitemap.invalidate(pagePath);
+                }
+            }
+        }
+    }
+
+    @Deactivate
+    protected void deactivate() {
+        synchronized (sitemaps) {
+            sitemaps.clear();
+        }
+    }
+
+    /**
+     * Maps a changed resource to the page it belongs to. Only the page node and its
+     * {@code jcr:content} node affect the sitemap; component changes deeper in the content are ignored.
+     */
+    private static String toPagePath(String path) {
+        int contentIndex = path.indexOf(JCR_CONTENT);
+        if (contentIndex < 0) {
+            return path;
+        }
+        return path.length() == contentIndex + JCR_CONTENT.length() ? path.substring(0, contentIndex) : null;
+    }
+
+    private static boolean isSameOrDescendant(String path, String ancestorPath) {
+        return path.equals(ancestorPath) || path.startsWith(ancestorPath + "/");
+    }
+
+    private SitemapPageHierarchy build(String rootPath, boolean useQueryBuilder,
+                                       SitemapPageHierarchy previous, Set<String> changedPaths) {
+        try (ResourceResolver resourceResolver = resolverFactory.getServiceResourceResolver(null)) {
+            PageManager pageManager = resourceResolver.adaptTo(PageManager.class);
+            if (pageManager == null) {
+                LOGGER.error("PageManager is null. Cannot build the site map for {}", rootPath);
+                return previous;
+            }
+            Page rootPage = pageManager.getPage(rootPath);
+            if (rootPage == null) {
+                LOGGER.warn("No page found for path: {}", rootPath);
+                return new SitemapPageHierarchy(rootPath, null, Collections.emptyList());
+            }
+            if (previous == null) {
+                long start = System.currentTimeMillis();
+                SitemapPageHierarchy root = new SitemapPageHierarchy(rootPage, useQueryBuilder
+                        ? SitemapQueryBuilder.buildSiteMap(resourceResolver, rootPath)
+                        : SiteMapModel.buildSiteMap(rootPage));
+                LOGGER.debug("Built site map for {} ({}) in {} ms", rootPath,
+                        useQueryBuilder ? "query" : "traversal", System.currentTimeMillis() - start);
+                return root;
+            }
+            return refresh(previous, rootPage, changedPaths);
+        } catch (LoginException e) {
+            LOGGER.error("Could not open a service resolver to build the site map for {}", rootPath, e);
+            return previous;
+        }
+    }
+
+    /**
+     * Rebuilds the child list of every node on the way to a changed path. Children that are not
+     * ancestors of a change are reused from the previous tree; children that did not exist before
+     * (created, moved in or no longer hidden) are built from scratch.
+     */
+    private static SitemapPageHierarchy refresh(SitemapPageHierarchy node, Page page, Set<String> changedPaths) {
+        if (!isAffected(node.getPath(), changedPaths)) {
+            return node;
+        }
+        Map<String, SitemapPageHierarchy> previousChildren = new HashMap<>();
+        for (SitemapPageHierarchy child : node.getChildren()) {
+            previousChildren.put(child.getPath(), child);
+        }
+
+        List<SitemapPageHierarchy> children = new ArrayList<>();
+        Iterator<Page> childIterator = page.listChildren();
+        while (childIterator.hasNext()) {
+            Page child = childIterator.next();
+            if (SiteMapModel.isPageExcluded(child)) {
+                continue;
+            }
+            SitemapPageHierarchy previous = previousChildren.get(child.getPath());
+            children.add(previous != null
+                    ? refresh(previous, child, changedPaths)
+                    : new SitemapPageHierarchy(child, SiteMapModel.buildSiteMap(child)));
+        }
+        return new SitemapPageHierarchy(page, children);
+    }
+
+    private static boolean isAffected(String path, Set<String> changedPaths) {
+        for (String changedPath : changedPaths) {
+            if (isSameOrDescendant(changedPath, path)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * An immutable sitemap tree as of one (re)build.
+     */
+    public static final class Snapshot {
+        private static final Snapshot EMPTY = new Snapshot(null, 0, 0);
+
+        private final SitemapPageHierarchy root;
+        private final long version;
+        private final long lastModified;
+        private volatile List<String> pagePaths;
+
+        Snapshot(SitemapPageHierarchy root, long version, long lastModified) {
+            this.root = root;
+            this.version = version;
+            this.lastModified = lastModified;
+        }
+
+        public List<SitemapPageHierarchy> getSiteMap() {
+            return root != null ? root.getChildren() : Collections.emptyList();
+        }
+
+        public long getVersion() {
+            return version;
+        }
+
+        /**
+         * Paths of all pages below the root in pre-order, the order of {@link SiteMapModel#visitSiteMap}.
+         * Flattened once per snapshot, so callers can count pages and cut the list into ranges
+         * without walking the tree again.
+         */
+        public List<String> getPagePaths() {
+            List<String> paths = pagePaths;
+            if (paths == null) {
+                List<String> flattened = new ArrayList<>();
+                Deque<SitemapPageHierarchy> stack = new ArrayDeque<>();
+                List<SitemapPageHierarchy> topLevel = getSiteMap();
+                for (int i = topLevel.size() - 1; i >= 0; i--) {
+                    stack.push(topLevel.get(i));
+                }
+                while (!stack.isEmpty()) {
+                    SitemapPageHierarchy node = stack.pop();
+                    flattened.add(node.getPath());
+                    List<SitemapPageHierarchy> children = node.getChildren();
+                    for (int i = children.size() - 1; i >= 0; i--) {
+                        stack.push(children.get(i));
+                    }
+                }
+                paths = Collections.unmodifiableList(flattened);
+                pagePaths = paths;
+            }
+            return paths;
+        }
+
+        /** Time the tree was last built or refreshed, in milliseconds. */
+        public long getLastModified() {
+            return lastModified;
+        }
+    }
+
+    private final class CachedSitemap {
+        private final String rootPath;
+        private final boolean useQueryBuilder;
+        private final Set<String> changedPaths = ConcurrentHashMap.newKeySet();
+        private volatile Snapshot snapshot = Snapshot.EMPTY;
+
+        CachedSitemap(String rootPath, boolean useQueryBuilder) {
+            this.rootPath = rootPath;
+            this.useQueryBuilder = useQueryBuilder;
+        }
+
+        void invalidate(String pagePath) {
+            changedPaths.add(pagePath);
+        }
+
+        Snapshot get() {
+            Snapshot current = snapshot;
+            if (current.root != null && changedPaths.isEmpty()) {
+                return current;
+            }
+            synchronized (this) {
+                SitemapPageHierarchy root = snapshot.root;
+                if (root == null) {
+                    changedPaths.clear();
+                    update(build(rootPath, useQueryBuilder, null, Collections.emptySet()));
+                } else if (!changedPaths.isEmpty()) {
+                    Set<String> pending = new HashSet<>(changedPaths);
+                    changedPaths.removeAll(pending);
+                    LOGGER.debug("Refreshing site map for {} after changes to {}", rootPath, pending);
+                    SitemapPageHierarchy refreshed = build(rootPath, useQueryBuilder, root, pending);
+                    if (refreshed == root) {
+                        // refresh failed, keep serving the previous tree and retry on the next read
+                        changedPaths.addAll(pending);
+                    }
+                    update(refreshed);
+                }
+                return snapshot;
+            }
+        }
+
+        private void update(SitemapPageHierarchy root) {
+            if (root != snapshot.root) {
+                snapshot = new Snapshot(root, snapshot.version + 1, System.currentTimeMillis());
+            }
+        }
+    }
+}
@@ -0,0 +1,97 @@
+package com.adobe.aem.guides.wknd.core.models;
+
+import org.osgi.service.component.annotations.Component;
+import org.osgi.service.component.annotations.Reference;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Pre-rendered sitemap markup, one fragment per root path and render settings. A fragment is
+ * re-rendered only when the {@link SitemapCache} tree it was rendered from has a new version,
+ * so unchanged trees skip the recursive template entirely.
+ *
+ * The markup matches {@code sitemap-template.html}: a nested {@code <ul>}/{@code <li>} list of
+ * page titles.
+ */
+@Component(service = SitemapFragmentCache.class)
+public class SitemapFragmentCache {
+
+    @Reference
+    private SitemapCache sitemapCache;
+
+    private final Map<String, Fragment> fragments = new ConcurrentHashMap<>();
+
+    public Fragment getFragment(String rootContentPath, int maxDepth, boolean useQueryBuilder) {
+        SitemapCache.Snapshot snapshot = sitemapCache.getSnapshot(rootContentPath, useQueryBuilder);
+        String key = rootContentPath + '|' + maxDepth + '|' + useQueryBuilder;
+
+        Fragment cached = fragments.get(key);
+        if (cached != null && cached.version == snapshot.getVersion()) {
+            return cached;
+        }
+        StringBuilder html = new StringBuilder();
+        List<SitemapPageHierarchy> siteMap = SitemapPageHierarchy.limitDepth(snapshot.getSiteMap(), maxDepth);
+        if (!siteMap.isEmpty()) {
+            renderList(html, siteMap);
+        }
+        Fragment rendered = new Fragment(html.toString(), snapshot.getVersion(), snapshot.getLastModified(),
+                Integer.toHexString(key.hashCode()));
+        fragments.put(key, rendered);
+        return rendered;
+    }
+
+    private static void renderList(StringBuilder html, List<SitemapPageHierarchy> items) {
+        html.append("<ul>");
+        for (SitemapPageHierarchy item : items) {
+            html.append("<li>");
+            if (item.getTitle() != null) {
+                html.append(escapeHtml(item.getTitle()));
+            }
+            if (!item.getChildren().isEmpty()) {
+                renderList(html, item.getChildren());
+            }
+            html.append("</li>");
+        }
+        html.append("</ul>");
+    }
+
+    private static String escapeHtml(String value) {
+        return value.replace("&", "&amp;")
+                .replace("<", "&lt;")
+                .replace(">", "&gt;")
+                .replace("\"", "&quot;")
+                .replace("'", "&#39;");
+    }
+
+    /**
+     * Rendered sitemap markup plus the validators to serve it with.
+     */
+    public static final class Fragment {
+        private final String html;
+        private final long version;
+        private final long lastModified;
+        private final String eTag;
+
+        Fragment(String html, long version, long lastModified, String keyHash) {
+            this.html = html;
+            this.version = version;
+            this.lastModified = lastModified;
+            this.eTag = "\"" + keyHash + '-' + Long.toHexString(lastModified) + '-' + version + "\"";
+        }
+
+        public String getHtml() {
+            return html;
+        }
+
+        public String getETag() {
+            return eTag;
+        }
+
+        /** Time the underlying tree was last built or refreshed, in milliseconds. */
+        public long getLastModified() {
+            return lastModified;
+        }
+    }
+}
@@ -0,0 +1,82 @@
+package com.adobe.aem.guides.wknd.core.servlets;
+
+import com.adobe.aem.guides.wknd.core.models.SiteMapModel;
+import com.adobe.aem.guides.wknd.core.models.SitemapFragmentCache;
+import org.apache.sling.api.SlingHttpServletRequest;
+import org.apache.sling.api.SlingConstants;
+import org.apache.sling.api.SlingHttpServletResponse;
+import org.apache.sling.api.servlets.SlingSafeMethodsServlet;
+import org.osgi.service.component.annotations.Component;
+
+import javax.servlet.Servlet;
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+
+/**
+ * Serves the pre-rendered sitemap list of a sitemap component, e.g.
+ * {@code .../root/sitemap.fragment.html}, with ETag and Last-Modified validators so dispatcher
+ * and browsers can revalidate with a 304 until the page tree changes.
+ *
+ * {@code sitemap.html} includes the component through this servlet. A plain server-side include
+ * only gets the markup; with Sling Dynamic Include (see
+ * {@code org.apache.sling.dynamicinclude.Configuration~wknd-sitemap.cfg.json}) the include is
+ * fetched as its own request and the validators apply to it.
+ */
+@Component(service = Servlet.class, property = {
+        "sling.servlet.resourceTypes=wknd/components/sitemap",
+        "sling.servlet.selectors=fragment",
+        "sling.servlet.extensions=html",
+        "sling.servlet.methods=GET"
+})
+public class SitemapFragmentServlet extends SlingSafeMethodsServlet {
+
+    @Override
+    protected void doGet(SlingHttpServletRequest request, SlingHttpServletResponse response)
+            throws ServletException, IOException {
+
+        SiteMapModel sitemapModel = request.getResource().adaptTo(SiteMapModel.class);
+        SitemapFragmentCache.Fragment fragment = sitemapModel != null ? sitemapModel.getFragment() : null;
+        if (fragment == null) {
+            response.sendError(HttpServletResponse.SC_NOT_FOUND);
+            return;
+        }
+
+        if (request.getAttribute(SlingConstants.ATTR_REQUEST_SERVLET) != null) {
+            // included into the page: headers of an include are ignored and the page request's
+            // conditional headers are not ours to answer
+            response.getWriter().write(fragment.getHtml());
+            return;
+        }
+
+        String eTag = fragment.getETag();
+        // HTTP dates only carry seconds
+        long lastModified = fragment.getLastModified() / 1000 * 1000;
+        response.setHeader("ETag", eTag);
+        response.setDateHeader("Last-Modified", lastModified);
+
+        if (isNotModified(request, eTag, lastModified)) {
+            response.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+            return;
+        }
+
+        response.setContentType("text/html");
+        response.setCharacterEncoding("UTF-8");
+        response.getWriter().write(fragment.getHtml());
+    }
+
+    private static boolean isNotModified(SlingHttpServletRequest request, String eTag, long lastModified) {
+        String ifNoneMatch = request.getHeader("If-None-Match");
+        if (ifNoneMatch != null) {
+            for (String candidate : ifNoneMatch.split(",")) {
+                String value = candidate.trim();
+                if (value.equals("*") || value.equals(eTag) || value.equals("W/" + eTag)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+        long ifModifiedSince = request.getDateHeader("If-Modified-Since");
+        return ifModifiedSince >= 0 && lastModified <= ifModifiedSince;
+    }
+}
@@ -2,22 +2,96 @@ package com.adobe.aem.guides.wknd.core.models;
 
 import com.day.cq.wcm.api.Page;
 
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
+import java.util.function.Supplier;
+import java.util.stream.Collectors;
 
+/**
+ * Immutable sitemap node. Holds only the page data the sitemap renders, so a built tree
+ * can be shared across requests without keeping a reference to any request's resolver.
+ *
+ * Children are either given up front or produced by a loader on the first {@link #getChildren()}
+ * call, so HTL only pays for the levels it actually renders.
+ */
 public class SitemapPageHierarchy {
-    private final Page page;
-    private final List<SitemapPageHierarchy> children;
+    private final String path;
+    private final String title;
+    private Supplier<List<SitemapPageHierarchy>> childLoader;
+    private volatile List<SitemapPageHierarchy> children;
 
     public SitemapPageHierarchy(Page page, List<SitemapPageHierarchy> children) {
-        this.page = page;
-        this.children = children;
+        this(page.getPath(), page.getTitle(), children);
     }
 
-    public Page getPage() {
-        return page;
+    public SitemapPageHierarchy(String path, String title, List<SitemapPageHierarchy> children) {
+        this.path = path;
+        this.title = title;
+        this.children = copyOf(children);
+    }
+
+    public SitemapPageHierarchy(Page page, Supplier<List<SitemapPageHierarchy>> childLoader) {
+        this(page.getPath(), page.getTitle(), childLoader);
+    }
+
+    public SitemapPageHierarchy(String path, String title, Supplier<List<SitemapPageHierarchy>> childLoader) {
+        this.path = path;
+        this.title = title;
+        this.childLoader = childLoader;
+    }
+
+    /**
+     * Returns a lazy view of {@code nodes} that stops after {@code maxDepth} levels;
+     * a {@code maxDepth} of zero or less leaves the tree unlimited.
+     */
+    public static List<SitemapPageHierarchy> limitDepth(List<SitemapPageHierarchy> nodes, int maxDepth) {
+        if (maxDepth <= 0 || nodes == null) {
+            return nodes;
+        }
+        return nodes.stream()
+                .map(node -> node.truncate(maxDepth))
+                .collect(Collectors.toList());
+    }
+
+    private SitemapPageHierarchy truncate(int levels) {
+        if (levels <= 1) {
+            return new SitemapPageHierarchy(path, title, Collections.emptyList());
+        }
+        return new SitemapPageHierarchy(path, title, () -> limitDepth(getChildren(), levels - 1));
+    }
+
+    public String getPath() {
+        return path;
+    }
+
+    public String getName() {
+        return path.substring(path.lastIndexOf('/') + 1);
+    }
+
+    public String getTitle() {
+        return title;
     }
 
     public List<SitemapPageHierarchy> getChildren() {
-        return children;
+        List<SitemapPageHierarchy> loaded = children;
+        if (loaded == null) {
+            synchronized (this) {
+                loaded = children;
+                if (loaded == null) {
+                    loaded = copyOf(childLoader.get());
+                    children = loaded;
+                    // release the loader, it usually holds on to a Page
+                    childLoader = null;
+                }
+            }
+        }
+        return loaded;
+    }
+
+    private static List<SitemapPageHierarchy> copyOf(List<SitemapPageHierarchy> children) {
+        return children == null || children.isEmpty()
+                ? Collections.emptyList()
+                : Collections.unmodifiableList(new ArrayList<>(children));
     }
 }
@@ -0,0 +1,134 @@
+package com.adobe.aem.guides.wknd.core.models;
+
+import org.apache.sling.api.resource.ResourceResolver;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.jcr.RepositoryException;
+import javax.jcr.Session;
+import javax.jcr.Value;
+import javax.jcr.query.Query;
+import javax.jcr.query.QueryManager;
+import javax.jcr.query.Row;
+import javax.jcr.query.RowIterator;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Alternative to the recursive {@code listChildren()} walk in {@link SiteMapModel}: fetches
+ * {@code jcr:title} and {@code hideInSitemap} for every page below the root with a single query
+ * and assembles the hierarchy in memory from the parent paths.
+ *
+ * Query results carry no sibling order, so children are sorted by path instead of the authored
+ * order. Hidden pages prune their whole subtree, same as the traversal. Pages without a
+ * {@code jcr:content} node have no row in the content query; a second, path-only query over
+ * {@code cq:Page} adds them without a title, as the traversal lists them, so their subtrees are
+ * kept.
+ */
+public final class SitemapQueryBuilder {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(SitemapQueryBuilder.class);
+
+    private static final String JCR_CONTENT = "/jcr:content";
+
+    private static final String PAGE_CONTENT_QUERY =
+            "SELECT [jcr:title], [hideInSitemap] FROM [cq:PageContent] AS content "
+                    + "WHERE ISDESCENDANTNODE(content, '%s')";
+
+    private static final String PAGE_QUERY =
+            "SELECT [jcr:path] FROM [cq:Page] AS page WHERE ISDESCENDANTNODE(page, '%s')";
+
+    private SitemapQueryBuilder() {
+    }
+
+    public static List<SitemapPageHierarchy> buildSiteMap(ResourceResolver resourceResolver, String rootContentPath) {
+        Session session = resourceResolver.adaptTo(Session.class);
+        if (session == null) {
+            LOGGER.error("Session is null. Cannot query the site map for {}", rootContentPath);
+            return Collections.emptyList();
+        }
+
+        long start = System.currentTimeMillis();
+        Map<String, List<PageEntry>> childrenByParent = new HashMap<>();
+        Set<String> pagesWithContent = new HashSet<>();
+        int pageCount = 0;
+        try {
+            QueryManager queryManager = session.getWorkspace().getQueryManager();
+            String escapedRoot = rootContentPath.replace("'", "''");
+            Query query = queryManager.createQuery(String.format(PAGE_CONTENT_QUERY, escapedRoot), Query.JCR_SQL2);
+            RowIterator rows = query.execute().getRows();
+            while (rows.hasNext()) {
+                Row row = rows.nextRow();
+                String contentPath = row.getPath();
+                if (!contentPath.endsWith(JCR_CONTENT)) {
+                    continue;
+                }
+                String pagePath = contentPath.substring(0, contentPath.length() - JCR_CONTENT.length());
+                String parentPath = pagePath.substring(0, pagePath.lastIndexOf('/'));
+                childrenByParent.computeIfAbsent(parentPath, key -> new ArrayList<>())
+                        .add(new PageEntry(pagePath, getString(row, "jcr:title"),
+                                Boolean.parseBoolean(getString(row, "hideInSitemap"))));
+                pagesWithContent.add(pagePath);
+                pageCount++;
+            }
+
+            // pages without jcr:content, listed by the traversal with a null title
+            Query pageQuery = queryManager.createQuery(String.format(PAGE_QUERY, escapedRoot), Query.JCR_SQL2);
+            RowIterator pageRows = pageQuery.execute().getRows();
+            while (pageRows.hasNext()) {
+                String pagePath = pageRows.nextRow().getPath();
+                if (!pagesWithContent.contains(pagePath)) {
+                    String parentPath = pagePath.substring(0, pagePath.lastIndexOf('/'));
+                    childrenByParent.computeIfAbsent(parentPath, key -> new ArrayList<>())
+                            .add(new PageEntry(pagePath, null, false));
+                    pageCount++;
+                }
+            }
+        } catch (RepositoryException e) {
+            LOGGER.error("Error querying the site map for {}", rootContentPath, e);
+            return Collections.emptyList();
+        }
+
+        List<SitemapPageHierarchy> siteMap = assemble(rootContentPath, childrenByParent);
+        LOGGER.debug("Built site map for {} from {} queried pages in {} ms",
+                rootContentPath, pageCount, System.currentTimeMillis() - start);
+        return siteMap;
+    }
+
+    private static List<SitemapPageHierarchy> assemble(String parentPath, Map<String, List<PageEntry>> childrenByParent) {
+        List<PageEntry> entries = childrenByParent.get(parentPath);
+        if (entries == null) {
+            return Collections.emptyList();
+        }
+        entries.sort((first, second) -> first.path.compareTo(second.path));
+        List<SitemapPageHierarchy> children = new ArrayList<>(entries.size());
+        for (PageEntry entry : entries) {
+            if (!entry.hidden) {
+                children.add(new SitemapPageHierarchy(entry.path, entry.title, assemble(entry.path, childrenByParent)));
+            }
+        }
+        return children;
+    }
+
+    private static String getString(Row row, String columnName) throws RepositoryException {
+        Value value = row.getValue(columnName);
+        return value != null ? value.getString() : null;
+    }
+
+    private static final class PageEntry {
+        private final String path;
+        private final String title;
+        private final boolean hidden;
+
+        PageEntry(String path, String title, boolean hidden) {
+            this.path = path;
+            this.title = title;
+            this.hidden = hidden;
+        }
+    }
+}
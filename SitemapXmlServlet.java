@@ -0,0 +1,183 @@
+package com.adobe.aem.guides.wknd.core.servlets;
+
+import com.adobe.aem.guides.wknd.core.models.SiteMapModel;
+import com.adobe.aem.guides.wknd.core.models.SitemapCache;
+import com.day.cq.commons.Externalizer;
+import com.day.cq.wcm.api.Page;
+import com.day.cq.wcm.api.PageManager;
+import org.apache.sling.api.SlingHttpServletRequest;
+import org.apache.sling.api.SlingHttpServletResponse;
+import org.apache.sling.api.resource.ResourceResolver;
+import org.apache.sling.api.servlets.SlingSafeMethodsServlet;
+import org.osgi.service.component.annotations.Component;
+import org.osgi.service.component.annotations.Reference;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.servlet.Servlet;
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServletResponse;
+import javax.xml.stream.XMLOutputFactory;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamWriter;
+import java.io.IOException;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.List;
+import java.util.TimeZone;
+
+/**
+ * Streams {@code sitemap.xml} for a page tree, e.g. {@code /content/wknd/us/en.sitemap.xml}.
+ *
+ * For the sitemap roots configured in {@link SitemapCache}, page count and shard boundaries come
+ * from the flattened page list of the cached snapshot, so neither the index nor a shard walks the
+ * live tree. Any other page is walked per request and never cached, so requests for arbitrary
+ * pages can't fill the cache. Only the pages of the requested shard are resolved, and entries are
+ * streamed as they are written. Trees
+ * with more than {@value #URLS_PER_SHARD} pages are answered with a sitemap index pointing at
+ * numbered shards ({@code en.sitemap.1.xml}, ...).
+ */
+@Component(service = Servlet.class, property = {
+        "sling.servlet.resourceTypes=cq:Page",
+        "sling.servlet.selectors=sitemap",
+        "sling.servlet.extensions=xml",
+        "sling.servlet.methods=GET"
+})
+public class SitemapXmlServlet extends SlingSafeMethodsServlet {
+
+    private static final Logger LOG = LoggerFactory.getLogger(SitemapXmlServlet.class);
+
+    static final int URLS_PER_SHARD = 50000;
+
+    private static final String SITEMAP_NS = "http://www.sitemaps.org/schemas/sitemap/0.9";
+
+    @Reference
+    private Externalizer externalizer;
+
+    @Reference
+    private SitemapCache sitemapCache;
+
+    @Override
+    protected void doGet(SlingHttpServletRequest request, SlingHttpServletResponse response)
+            throws ServletException, IOException {
+
+        ResourceResolver resourceResolver = request.getResourceResolver();
+        PageManager pageManager = resourceResolver.adaptTo(PageManager.class);
+        Page rootPage = pageManager != null ? pageManager.getContainingPage(request.getResource()) : null;
+        if (rootPage == null) {
+            response.sendError(HttpServletResponse.SC_NOT_FOUND);
+            return;
+        }
+
+        int shard = 0;
+        String[] selectors = request.getRequestPathInfo().getSelectors();
+        if (selectors.length > 1) {
+            try {
+                shard = Integer.parseInt(selectors[1]);
+            } catch (NumberFormatException e) {
+                shard = -1;
+            }
+            if (shard < 1) {
+                response.sendError(HttpServletResponse.SC_NOT_FOUND);
+                return;
+            }
+        }
+
+        response.setContentType("application/xml");
+        response.setCharacterEncoding("UTF-8");
+
+        // the root page itself is the first entry unless it is hidden
+        List<String> pagePaths = sitemapCache.isSitemapRoot(rootPage.getPath())
+                ? sitemapCache.getSnapshot(rootPage.getPath(), false).getPagePaths()
+                : listPagePaths(rootPage);
+        boolean includeRoot = !SiteMapModel.isPageExcluded(rootPage);
+        long pageCount = pagePaths.size() + (includeRoot ? 1 : 0);
+
+        try {
+            XMLStreamWriter xml = XMLOutputFactory.newFactory().createXMLStreamWriter(response.getWriter());
+            xml.writeStartDocument("UTF-8", "1.0");
+            if (shard > 0) {
+                writeUrlSet(xml, rootPage, includeRoot, pagePaths, resourceResolver, (long) (shard - 1) * URLS_PER_SHARD);
+            } else if (pageCount > URLS_PER_SHARD) {
+                writeIndex(xml, rootPage, resourceResolver, (int) ((pageCount + URLS_PER_SHARD - 1) / URLS_PER_SHARD));
+            } else {
+                writeUrlSet(xml, rootPage, includeRoot, pagePaths, resourceResolver, 0);
+            }
+            xml.writeEndDocument();
+            xml.flush();
+            xml.close();
+        } catch (XMLStreamException e) {
+            LOG.error("Error writing sitemap for {}", rootPage.getPath(), e);
+            throw new IOException("Could not write sitemap for " + rootPage.getPath(), e);
+        }
+    }
+
+    private static List<String> listPagePaths(Page rootPage) {
+        List<String> pagePaths = new ArrayList<>();
+        SiteMapModel.visitSiteMap(rootPage, page -> pagePaths.add(page.getPath()));
+        return pagePaths;
+    }
+
+    /**
+     * Writes up to {@value #URLS_PER_SHARD} {@code <url>} entries, starting after the first
+     * {@code offset} pages in traversal order. The root page itself counts as the first page.
+     */
+    private void writeUrlSet(XMLStreamWriter xml, Page rootPage, boolean includeRoot, List<String> pagePaths,
+                             ResourceResolver resourceResolver, long offset) throws XMLStreamException {
+        xml.writeStartElement("urlset");
+        xml.writeDefaultNamespace(SITEMAP_NS);
+
+        PageManager pageManager = resourceResolver.adaptTo(PageManager.class);
+        int rootOffset = includeRoot ? 1 : 0;
+        long end = Math.min(offset + URLS_PER_SHARD, (long) pagePaths.size() + rootOffset);
+        for (long position = offset; position < end; position++) {
+            if (position < rootOffset) {
+                writeUrl(xml, rootPage, resourceResolver);
+                continue;
+            }
+            Page page = pageManager.getPage(pagePaths.get((int) (position - rootOffset)));
+            // deleted since the snapshot was taken, the cache refreshes on the change event
+            if (page != null) {
+                writeUrl(xml, page, resourceResolver);
+            }
+        }
+
+        xml.writeEndElement();
+    }
+
+    private void writeUrl(XMLStreamWriter xml, Page page, ResourceResolver resourceResolver) throws XMLStreamException {
+        xml.writeStartElement("url");
+        writeElement(xml, "loc", externalizer.publishLink(resourceResolver, page.getPath() + ".html"));
+        Calendar lastModified = page.getLastModified();
+        if (lastModified != null) {
+            writeElement(xml, "lastmod", formatDate(lastModified));
+        }
+        xml.writeEndElement();
+    }
+
+    private void writeIndex(XMLStreamWriter xml, Page rootPage, ResourceResolver resourceResolver, int shards)
+            throws XMLStreamException {
+        xml.writeStartElement("sitemapindex");
+        xml.writeDefaultNamespace(SITEMAP_NS);
+        for (int shard = 1; shard <= shards; shard++) {
+            xml.writeStartElement("sitemap");
+            writeElement(xml, "loc", externalizer.publishLink(resourceResolver,
+                    rootPage.getPath() + ".sitemap." + shard + ".xml"));
+            xml.writeEndElement();
+        }
+        xml.writeEndElement();
+    }
+
+    private static void writeElement(XMLStreamWriter xml, String name, String value) throws XMLStreamException {
+        xml.writeStartElement(name);
+        xml.writeCharacters(value);
+        xml.writeEndElement();
+    }
+
+    private static String formatDate(Calendar calendar) {
+        SimpleDateFormat format = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ssXXX");
+        format.setTimeZone(TimeZone.getTimeZone("UTC"));
+        return format.format(calendar.getTime());
+    }
+}
@@ -0,0 +1,22 @@
+import java.util.Set;
+
+/**
+ * A rewrite that {@link BulkStringReplacer} applies to String property values.
+ */
+public interface StringReplacement {
+
+    /** Property names this replacement is limited to, or null for all String properties. */
+    Set<String> getPropertyNames();
+
+    boolean appliesTo(String propertyName);
+
+    /**
+     * @return the rewritten value, or {@code value} itself if nothing matched
+     */
+    String apply(String value);
+
+    /**
+     * @return how many matches {@link #apply} would replace in {@code value}
+     */
+    int countMatches(String value);
+}